@@ -0,0 +1,59 @@
+package org.mpru.log.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mpru.log.ICancel;
+import org.mpru.log.ILog;
+import org.mpru.log.Log;
+import org.mpru.log.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Deferred message cycle: logDefer() and cancel() before the print time (the "started ... finished quickly" usage)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeferBenchmark {
+
+	private Logger logger;
+	private ILog log;
+
+	@Setup
+	public void setup() {
+		logger=new Logger(false, false);
+		logger.addLogOut(new FormattingLogOut());
+		log=Log.createInitial(logger);
+	}
+
+	@TearDown
+	public void tearDown() {
+		logger.close();
+	}
+
+	@Benchmark
+	public boolean deferCancel() {
+		ICancel c=log.logDefer(60000, "process {0} started", ILog.INFO, "import");
+		return log.cancel(c);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public boolean deferCancel4Threads() {
+		return deferCancel();
+	}
+}
@@ -0,0 +1,62 @@
+package org.mpru.log.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mpru.log.ILog;
+import org.mpru.log.Log;
+import org.mpru.log.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the calls of the disabled levels (INFO screen, MOREINFO file) through the 3-level Log chain
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DisabledLevelBenchmark {
+
+	private Logger logger;
+	private ILog log;
+	private Object arg="arg";
+	private long counter;
+
+	@Setup
+	public void setup() {
+		logger=new Logger(false, false);
+		logger.addLogOut(new FormattingLogOut());
+		log=Log.createInitial(logger).newLog(true).newLog(true);
+	}
+
+	@TearDown
+	public void tearDown() {
+		logger.close();
+	}
+
+	@Benchmark
+	public void traceObject() {
+		log.trace("trace {0}", arg);
+	}
+
+	@Benchmark
+	public void debugLong() {
+		log.debugNum("debug {0}", counter++);
+	}
+
+	@Benchmark
+	public boolean isDebug() {
+		return log.isDebug();
+	}
+}
@@ -0,0 +1,108 @@
+package org.mpru.log.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.mpru.log.BinaryLogOut;
+import org.mpru.log.FileLogOut;
+import org.mpru.log.ILog;
+import org.mpru.log.JsonLogOut;
+import org.mpru.log.Log;
+import org.mpru.log.Logger;
+import org.mpru.log.MappedFileLogOut;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end throughput of info() to the log file. The producer is limited by the file output when the
+ * message buffer is full, the buffered messages are written at the end of each iteration.
+ * The files are written to /dev/shm (tmpfs) if it exists, the directory can be set by -Dbench.dir=...
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileThroughputBenchmark {
+
+	@Param({"writer", "channel", "mmap", "binary", "json"})
+	public String out;
+
+	private File dir;
+	private Logger logger;
+	private ILog log;
+	private long counter;
+
+	@Setup
+	public void setup() throws IOException {
+		String base=System.getProperty("bench.dir");
+		if(base==null) base=new File("/dev/shm").isDirectory()?"/dev/shm":System.getProperty("java.io.tmpdir");
+		dir=Files.createTempDirectory(new File(base).toPath(), "fastlog-bench").toFile();
+		FileLogOut fileOut;
+		switch(out) {
+			case "writer":
+				fileOut=new FileLogOut();
+				fileOut.setProperty(FileLogOut.FILE_MODE, FileLogOut.FILE_MODE_WRITER);
+				break;
+			case "channel":
+				fileOut=new FileLogOut();
+				fileOut.setProperty(FileLogOut.FILE_MODE, FileLogOut.FILE_MODE_CHANNEL);
+				break;
+			case "mmap":
+				fileOut=new MappedFileLogOut();
+				break;
+			case "binary":
+				fileOut=new BinaryLogOut();
+				break;
+			case "json":
+				fileOut=new JsonLogOut();
+				break;
+			default:
+				throw new IllegalArgumentException(out);
+		}
+		// rotated files are deleted, so that tmpfs is not filled
+		fileOut.setProperty(FileLogOut.MAX_FILE_SIZE, 64*1024*1024L);
+		fileOut.setProperty(FileLogOut.MAX_FILES, 2);
+		logger=new Logger(false, false);
+		logger.addLogOut(fileOut);
+		log=Log.createInitial(logger);
+		log.setProperty(ILog.FILE_LOG_LEVEL, "info");
+		log.setProperty(ILog.LOG_PATH, new File(dir, "bench.log").getPath());
+	}
+
+	@TearDown(Level.Iteration)
+	public void flush() {
+		logger.flush();
+	}
+
+	@TearDown
+	public void tearDown() {
+		logger.close();
+		File[] files=dir.listFiles();
+		if(files!=null) {
+			for(File f: files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Benchmark
+	public void info() {
+		log.info("request {0} from {1} processed in {2} ms", counter++, "192.168.1.15", 15L);
+	}
+}
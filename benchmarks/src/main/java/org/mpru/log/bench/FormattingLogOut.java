@@ -0,0 +1,52 @@
+package org.mpru.log.bench;
+
+import org.mpru.log.ILogOut;
+import org.mpru.log.ILogger;
+import org.mpru.log.Msg;
+
+/**
+ * Output rendering the file line of each message to the reused buffer without any I/O,
+ * so the logging pipeline is measured without the file system
+ */
+public class FormattingLogOut implements ILogOut {
+
+	private final StringBuilder sb=new StringBuilder(500);
+	private ILogger l;
+	private long chars;
+
+	@Override
+	public void print(Msg msg) {
+		if(msg.isFile) {
+			sb.setLength(0);
+			l.appendText(msg, sb, ILogger.FULL);
+			chars+=sb.length();
+		}
+	}
+
+	public long getChars() {
+		return chars;
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public boolean setProperty(String name, Object value) {
+		return false;
+	}
+
+	@Override
+	public void setILogger(ILogger logger) {
+		l=logger;
+	}
+
+	@Override
+	public String getProperty(String name) {
+		return null;
+	}
+}
@@ -0,0 +1,82 @@
+package org.mpru.log.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mpru.log.ILog;
+import org.mpru.log.Log;
+import org.mpru.log.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Enabled info() throughput from 1, 4, 16 and 64 threads: buffering, flusher hand-off and formatting
+ * (FormattingLogOut, no I/O). The logger system properties (ring buffer, pool, back pressure, flush wait)
+ * can be passed with -PjmhArgs="-jvmArgsAppend -Dorg.mpru.log...."
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InfoThroughputBenchmark {
+
+	private Logger logger;
+	private ILog log;
+
+	@State(Scope.Thread)
+	public static class Counter {
+		long value;
+	}
+
+	@Setup
+	public void setup() {
+		logger=new Logger(false, false);
+		logger.addLogOut(new FormattingLogOut());
+		log=Log.createInitial(logger);
+		log.setProperty(ILog.FILE_LOG_LEVEL, "info");
+	}
+
+	@TearDown
+	public void tearDown() {
+		logger.close();
+	}
+
+	private void info(Counter c) {
+		log.infoNum("request {0} processed in {1} ms", c.value++, 15L);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void threads01(Counter c) {
+		info(c);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void threads04(Counter c) {
+		info(c);
+	}
+
+	@Benchmark
+	@Threads(16)
+	public void threads16(Counter c) {
+		info(c);
+	}
+
+	@Benchmark
+	@Threads(64)
+	public void threads64(Counter c) {
+		info(c);
+	}
+}
@@ -0,0 +1,93 @@
+package org.mpru.log.bench;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.mpru.log.Msg;
+import org.mpru.log.MsgFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Message text making (MsgFormatter.makeText) for {N} and $N patterns with simple arguments,
+ * with nested Map/array/collection arguments and with the arguments of the types formatted by ArgFormatters
+ * (primitive arrays, UUID, enum, java.time)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Thread)
+public class MakeTextBenchmark {
+
+	@Param({"braces", "dollar", "nested", "typed"})
+	public String kind;
+
+	private final Formatter formatter=new Formatter();
+	private final Msg msg=new Msg();
+	private String pattern;
+	private Object[] args;
+
+	/**
+	 * Gives access to the protected makeText()
+	 */
+	static final class Formatter extends MsgFormatter {
+		void make(Msg m) {
+			makeText(m);
+		}
+	}
+
+	@Setup
+	public void setup() {
+		switch(kind) {
+			case "braces":
+				pattern="user {0} opened {1} in {2} ms";
+				args=new Object[] {"admin", "/var/data/report.txt", 125L};
+				break;
+			case "dollar":
+				pattern="user $0 opened $1 in $2 ms";
+				args=new Object[] {"admin", "/var/data/report.txt", 125L};
+				break;
+			case "nested":
+				Map<String, Object> map=new LinkedHashMap<>();
+				map.put("ids", new int[] {1, 2, 3, 4, 5});
+				map.put("names", Arrays.asList("alpha", "beta", "gamma"));
+				map.put("matrix", new Object[] {new long[] {1, 2}, new String[] {"x", "y"}, null});
+				pattern="state {0} of {1}";
+				args=new Object[] {map, new Object[] {"node", 7, 2.5}};
+				break;
+			case "typed":
+				pattern="request {0} {1} at {2} ({3}) bytes {4} times {5}";
+				args=new Object[] {UUID.randomUUID(), TimeUnit.SECONDS, Instant.now(), LocalDateTime.now(),
+						new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16}, new long[] {125, 250, 500}};
+				break;
+			default:
+				throw new IllegalArgumentException(kind);
+		}
+	}
+
+	@Benchmark
+	public String makeText() {
+		Msg m=msg;
+		m.cachedText=null;
+		m.pattern=pattern;
+		m.args=args;
+		formatter.make(m);
+		return m.cachedText;
+	}
+}
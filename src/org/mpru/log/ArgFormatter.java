@@ -0,0 +1,15 @@
+package org.mpru.log;
+
+/**
+ * Appends the message argument of the given type to the message text instead of its toString(),
+ * see {@link MsgFormatter#registerFormatter(Class, ArgFormatter)}.
+ * Called by the logger thread (unless the argument is mutable and the message is deferred), so it
+ * should be fast and should not block. It is not called for null values.
+ * <pre><code>MsgFormatter.registerFormatter(Point.class, (p, sb) -&gt; sb.append(p.x).append(':').append(p.y));</code></pre>
+ * @param <T> - argument type
+ */
+@FunctionalInterface
+public interface ArgFormatter<T> {
+
+	void append(T value, StringBuilder sb);
+}
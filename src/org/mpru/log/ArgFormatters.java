@@ -0,0 +1,310 @@
+package org.mpru.log;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the argument formatters (looked up by the argument class once, then cached in ClassValue)
+ * and the built-in formatters: primitive arrays (without boxing, byte[] as 2 hex digits per byte),
+ * ByteBuffer (remaining bytes as byte[]), UUID, enums (unless toString() is overridden) and
+ * Instant, LocalDate, LocalTime, LocalDateTime, OffsetDateTime, ZonedDateTime (the same text as their toString())
+ */
+final class ArgFormatters {
+
+	private static final char[] HEX="0123456789abcdef".toCharArray();
+	private static final ArgFormatter<Object> NONE=(value, sb) -> sb.append(value);
+
+	private static final ConcurrentHashMap<Class<?>, ArgFormatter<?>> registered=new ConcurrentHashMap<>();
+	private static volatile ClassValue<ArgFormatter<?>> formatters=newFormatters();
+
+	private ArgFormatters() {
+	}
+
+	private static ClassValue<ArgFormatter<?>> newFormatters() {
+		return new ClassValue<ArgFormatter<?>>() {
+			@Override
+			protected ArgFormatter<?> computeValue(Class<?> type) {
+				ArgFormatter<?> f=findRegistered(type);
+				if(f==null) f=getBuiltin(type);
+				return f==null?NONE:f;
+			}
+		};
+	}
+
+	/**
+	 * @param type
+	 * @param formatter - null to remove
+	 */
+	static void register(Class<?> type, ArgFormatter<?> formatter) {
+		if(formatter==null) registered.remove(type);
+		else registered.put(type, formatter);
+		formatters=newFormatters(); // the cached lookups of the subclasses are not valid anymore
+	}
+
+	/**
+	 * @param type - argument class
+	 * @return the formatter or null if the argument is formatted by MsgFormatter (collections, arrays of objects) or by toString()
+	 */
+	@SuppressWarnings("unchecked")
+	static ArgFormatter<Object> get(Class<?> type) {
+		ArgFormatter<?> f=formatters.get(type);
+		return f==NONE?null:(ArgFormatter<Object>) f;
+	}
+
+	private static ArgFormatter<?> findRegistered(Class<?> type) {
+		if(registered.isEmpty()) return null;
+		for(Class<?> c=type;c!=null;c=c.getSuperclass()) {
+			ArgFormatter<?> f=registered.get(c);
+			if(f!=null) return f;
+		}
+		for(Class<?> c=type;c!=null;c=c.getSuperclass()) {
+			ArgFormatter<?> f=findInterface(c);
+			if(f!=null) return f;
+		}
+		return null;
+	}
+
+	private static ArgFormatter<?> findInterface(Class<?> type) {
+		for(Class<?> i: type.getInterfaces()) {
+			ArgFormatter<?> f=registered.get(i);
+			if(f==null) f=findInterface(i);
+			if(f!=null) return f;
+		}
+		return null;
+	}
+
+	private static ArgFormatter<?> getBuiltin(Class<?> type) {
+		if(type.isArray()) {
+			return type.getComponentType().isPrimitive()?new ArrayFormatter():null;
+		}
+		if(ByteBuffer.class.isAssignableFrom(type)) return new ArrayFormatter();
+		if(type==UUID.class) return (ArgFormatter<UUID>) ArgFormatters::appendUuid;
+		if(Enum.class.isAssignableFrom(type)) {
+			try {
+				if(type.getMethod("toString").getDeclaringClass()!=Enum.class) return null;
+			}catch(NoSuchMethodException|SecurityException e) {
+				return null;
+			}
+			return (ArgFormatter<Enum<?>>) (value, sb) -> sb.append(value.name());
+		}
+		if(type==Instant.class) return (ArgFormatter<Instant>) ArgFormatters::appendInstant;
+		if(type==LocalDate.class) return (ArgFormatter<LocalDate>) ArgFormatters::appendDate;
+		if(type==LocalTime.class) return (ArgFormatter<LocalTime>) ArgFormatters::appendTime;
+		if(type==LocalDateTime.class) return (ArgFormatter<LocalDateTime>) ArgFormatters::appendDateTime;
+		if(type==OffsetDateTime.class) {
+			return (ArgFormatter<OffsetDateTime>) (value, sb) -> {
+				appendDateTime(value.toLocalDateTime(), sb);
+				sb.append(value.getOffset().getId());
+			};
+		}
+		if(type==ZonedDateTime.class) {
+			return (ArgFormatter<ZonedDateTime>) (value, sb) -> {
+				appendDateTime(value.toLocalDateTime(), sb);
+				sb.append(value.getOffset().getId());
+				if(value.getOffset()!=value.getZone()) sb.append('[').append(value.getZone().getId()).append(']');
+			};
+		}
+		return null;
+	}
+
+	/**
+	 * Primitive arrays and ByteBuffer, the number of the elements printed is limited by MsgFormatter
+	 */
+	static final class ArrayFormatter implements ArgFormatter<Object> {
+
+		@Override
+		public void append(Object value, StringBuilder sb) {
+			append(value, sb, Integer.MAX_VALUE);
+		}
+
+		void append(Object value, StringBuilder sb, int maxCount) {
+			if(value instanceof ByteBuffer) {
+				ByteBuffer buf=(ByteBuffer) value;
+				int pos=buf.position();
+				int sz=appendSize(buf.remaining(), sb, maxCount);
+				for(int i=0;i<sz;i++) {
+					if(i>0) sb.append(", ");
+					appendHex(buf.get(pos+i), sb);
+				}
+			}else if(value instanceof byte[]) {
+				byte[] a=(byte[]) value;
+				int sz=appendSize(a.length, sb, maxCount);
+				for(int i=0;i<sz;i++) {
+					if(i>0) sb.append(", ");
+					appendHex(a[i], sb);
+				}
+			}else if(value instanceof int[]) {
+				int[] a=(int[]) value;
+				int sz=appendSize(a.length, sb, maxCount);
+				for(int i=0;i<sz;i++) {
+					if(i>0) sb.append(", ");
+					sb.append(a[i]);
+				}
+			}else if(value instanceof long[]) {
+				long[] a=(long[]) value;
+				int sz=appendSize(a.length, sb, maxCount);
+				for(int i=0;i<sz;i++) {
+					if(i>0) sb.append(", ");
+					sb.append(a[i]);
+				}
+			}else if(value instanceof double[]) {
+				double[] a=(double[]) value;
+				int sz=appendSize(a.length, sb, maxCount);
+				for(int i=0;i<sz;i++) {
+					if(i>0) sb.append(", ");
+					sb.append(a[i]);
+				}
+			}else if(value instanceof char[]) {
+				char[] a=(char[]) value;
+				int sz=appendSize(a.length, sb, maxCount);
+				for(int i=0;i<sz;i++) {
+					if(i>0) sb.append(", ");
+					sb.append(a[i]);
+				}
+			}else if(value instanceof short[]) {
+				short[] a=(short[]) value;
+				int sz=appendSize(a.length, sb, maxCount);
+				for(int i=0;i<sz;i++) {
+					if(i>0) sb.append(", ");
+					sb.append(a[i]);
+				}
+			}else if(value instanceof float[]) {
+				float[] a=(float[]) value;
+				int sz=appendSize(a.length, sb, maxCount);
+				for(int i=0;i<sz;i++) {
+					if(i>0) sb.append(", ");
+					sb.append(a[i]);
+				}
+			}else {
+				boolean[] a=(boolean[]) value;
+				int sz=appendSize(a.length, sb, maxCount);
+				for(int i=0;i<sz;i++) {
+					if(i>0) sb.append(", ");
+					sb.append(a[i]);
+				}
+			}
+			sb.append(']');
+		}
+
+		/**
+		 * Appends "[" and "SIZE:n " if the array is longer than maxCount
+		 * @return number of the elements to append
+		 */
+		private static int appendSize(int sz, StringBuilder sb, int maxCount) {
+			sb.append('[');
+			if(sz<=maxCount) return sz;
+			sb.append("SIZE:").append(sz).append(' ');
+			return maxCount;
+		}
+	}
+
+	private static void appendHex(byte b, StringBuilder sb) {
+		sb.append(HEX[(b>>4)&15]).append(HEX[b&15]);
+	}
+
+	private static void appendHex(long v, int digits, StringBuilder sb) {
+		for(int shift=(digits-1)*4;shift>=0;shift-=4) {
+			sb.append(HEX[(int) (v>>>shift)&15]);
+		}
+	}
+
+	static void appendUuid(UUID value, StringBuilder sb) {
+		long msb=value.getMostSignificantBits();
+		long lsb=value.getLeastSignificantBits();
+		appendHex(msb>>>32, 8, sb);
+		sb.append('-');
+		appendHex(msb>>>16, 4, sb);
+		sb.append('-');
+		appendHex(msb, 4, sb);
+		sb.append('-');
+		appendHex(lsb>>>48, 4, sb);
+		sb.append('-');
+		appendHex(lsb, 12, sb);
+	}
+
+	private static void append2(int v, StringBuilder sb) {
+		sb.append((char) ('0'+v/10)).append((char) ('0'+v%10));
+	}
+
+	private static void appendDate(int year, int month, int day, StringBuilder sb) {
+		append2(year/100, sb);
+		append2(year%100, sb);
+		sb.append('-');
+		append2(month, sb);
+		sb.append('-');
+		append2(day, sb);
+	}
+
+	/**
+	 * Appends HH:mm[:ss[.fraction]], the fraction is printed by 3 digits as needed (as LocalTime.toString())
+	 * @param isSeconds - append zero seconds
+	 */
+	private static void appendTime(int hour, int minute, int second, int nano, boolean isSeconds, StringBuilder sb) {
+		append2(hour, sb);
+		sb.append(':');
+		append2(minute, sb);
+		if(!isSeconds && second==0 && nano==0) return;
+		sb.append(':');
+		append2(second, sb);
+		if(nano==0) return;
+		sb.append('.');
+		int digits=9;
+		while(digits>3 && nano%1000==0) {
+			nano/=1000;
+			digits-=3;
+		}
+		for(int div=digits==9?100000000:digits==6?100000:100;div>0;div/=10) {
+			sb.append((char) ('0'+nano/div%10));
+		}
+	}
+
+	static void appendDate(LocalDate value, StringBuilder sb) {
+		int year=value.getYear();
+		if(year<0 || year>9999) {
+			sb.append(value); // sign or 5+ digits
+			return;
+		}
+		appendDate(year, value.getMonthValue(), value.getDayOfMonth(), sb);
+	}
+
+	static void appendTime(LocalTime value, StringBuilder sb) {
+		appendTime(value.getHour(), value.getMinute(), value.getSecond(), value.getNano(), false, sb);
+	}
+
+	static void appendDateTime(LocalDateTime value, StringBuilder sb) {
+		int year=value.getYear();
+		if(year<0 || year>9999) {
+			sb.append(value);
+			return;
+		}
+		appendDate(year, value.getMonthValue(), value.getDayOfMonth(), sb);
+		sb.append('T');
+		appendTime(value.getHour(), value.getMinute(), value.getSecond(), value.getNano(), false, sb);
+	}
+
+	/**
+	 * Appends the UTC time as Instant.toString() (seconds are always printed)
+	 */
+	static void appendInstant(Instant value, StringBuilder sb) {
+		long seconds=value.getEpochSecond();
+		long days=Math.floorDiv(seconds, 86400);
+		int secOfDay=Math.floorMod(seconds, 86400);
+		long date=TimeRenderer.civilFromDays(days);
+		long year=date>>9;
+		if(year<0 || year>9999) {
+			sb.append(value);
+			return;
+		}
+		appendDate((int) year, (int) (date>>5&15), (int) (date&31), sb);
+		sb.append('T');
+		appendTime(secOfDay/3600, secOfDay/60%60, secOfDay%60, value.getNano(), true, sb);
+		sb.append('Z');
+	}
+}
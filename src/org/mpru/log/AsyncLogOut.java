@@ -0,0 +1,194 @@
+package org.mpru.log;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ILogOut wrapper printing messages in its own thread from the bounded queue, so a slow output
+ * (blocked console, for instance) does not delay other outputs and the logger flusher.
+ * When the queue is full the flusher waits (isDropWhenFull==false) or the message is dropped and counted.
+ * Created by Logger for each ILogOut if LOGGER_ASYNC_OUTS system property is set.
+ */
+public final class AsyncLogOut implements ILogOut {
+
+	private static final long IDLE_WAIT_MILLIS=50;
+	private static final long CLOSE_WAIT_MILLIS=10000;
+
+	static final AtomicIntegerFieldUpdater<Msg> PENDING_OUTS=AtomicIntegerFieldUpdater.newUpdater(Msg.class, "pendingOuts");
+
+	private final Logger owner;
+	private final ILogOut out;
+	private final ArrayBlockingQueue<Msg> queue;
+	private final boolean isDropWhenFull;
+	private final Thread drainer;
+	private volatile boolean isFlushRequested;
+	private volatile boolean isClosed;
+
+	private final LongAdder printed=new LongAdder();
+	private final LongAdder dropped=new LongAdder();
+	private volatile long lagMillis;
+	private volatile long maxLagMillis;
+
+	AsyncLogOut(Logger owner, ILogOut out, int capacity, boolean isDropWhenFull) {
+		this.owner=owner;
+		this.out=out;
+		this.queue=new ArrayBlockingQueue<>(capacity);
+		this.isDropWhenFull=isDropWhenFull;
+		drainer=new Drainer(this::drain, "Log Out "+out.getClass().getSimpleName());
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	/**
+	 * The thread printing the queued messages (the logger does not make it wait when logging)
+	 */
+	static final class Drainer extends Thread {
+		Drainer(Runnable target, String name) {
+			super(target, name);
+		}
+	}
+
+	/**
+	 * @return the wrapped output
+	 */
+	public ILogOut getLogOut() {
+		return out;
+	}
+
+	/**
+	 * @return number of messages waiting for printing
+	 */
+	public int getBacklog() {
+		return queue.size();
+	}
+
+	/**
+	 * @return delay (millis) between the message time (or deferred print time) and its printing, for the last printed message
+	 */
+	public long getLagMillis() {
+		return lagMillis;
+	}
+
+	public long getMaxLagMillis() {
+		return maxLagMillis;
+	}
+
+	public long getPrintedCount() {
+		return printed.sum();
+	}
+
+	/**
+	 * @return number of messages dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	@Override
+	public void print(Msg m) throws IOException {
+		if(isClosed) {
+			owner.recycle(m);
+			return;
+		}
+		if(queue.offer(m)) return;
+		if(isDropWhenFull) {
+			dropped.increment();
+			owner.recycle(m);
+			return;
+		}
+		boolean isInterrupted=false;
+		try {
+			while(true) {
+				try {
+					if(queue.offer(m, IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) return;
+				}catch(InterruptedException e) {
+					isInterrupted=true; // the message is not dropped, the interrupt is restored after
+				}
+				if(isClosed) {
+					owner.recycle(m);
+					return;
+				}
+			}
+		}finally {
+			if(isInterrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	private void drain() {
+		int unflushed=0;
+		while(true) {
+			Msg m;
+			try {
+				m=queue.poll(IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+			}catch(InterruptedException e) {
+				m=null;
+			}
+			if(m!=null) {
+				try {
+					out.print(m);
+				}catch(Exception e) {
+					owner.reportInternalError("log error", e);
+				}
+				long lag=System.currentTimeMillis()-Math.max(m.time, m.printAt);
+				lagMillis=lag;
+				if(lag>maxLagMillis) maxLagMillis=lag;
+				printed.increment();
+				owner.recycle(m);
+				// flush is done when the queue is empty, but not less often than once per queue capacity messages
+				if(++unflushed<queue.remainingCapacity()+queue.size() && !queue.isEmpty()) continue;
+			}
+			if(isFlushRequested) {
+				isFlushRequested=false;
+				unflushed=0;
+				try {
+					out.flush();
+				}catch(Exception e) {
+					owner.reportInternalError("log flush error", e);
+				}
+			}
+			if(isClosed && queue.isEmpty()) break;
+		}
+		out.close(); // by this thread: close() does not wait for it longer than CLOSE_WAIT_MILLIS
+	}
+
+	/**
+	 * Requests the output flush after the queued messages are printed
+	 */
+	@Override
+	public void flush() throws IOException {
+		isFlushRequested=true;
+	}
+
+	/**
+	 * Waits (not more than CLOSE_WAIT_MILLIS) until the queued messages are printed and the output is closed.
+	 * The output is closed by the print thread after the last message, so it is not closed while printing
+	 */
+	@Override
+	public void close() {
+		isFlushRequested=true;
+		isClosed=true;
+		try {
+			drainer.join(CLOSE_WAIT_MILLIS);
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public boolean setProperty(String name, Object value) {
+		return out.setProperty(name, value);
+	}
+
+	@Override
+	public void setILogger(ILogger logger) {
+		out.setILogger(logger);
+	}
+
+	@Override
+	public String getProperty(String name) {
+		return out.getProperty(name);
+	}
+}
@@ -0,0 +1,272 @@
+package org.mpru.log;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.zip.CRC32C;
+
+import static org.mpru.log.BinaryLogOut.*;
+
+/**
+ * Converts the file written by BinaryLogOut to the text FileLogOut would print.
+ * Damaged records (checksum mismatch) are skipped, the reading continues from the next record marker.
+ * The line separator of the decoding JVM is used (-Dline.separator=... can be set to get the one of the logging host).
+ * <pre><code>java -cp fastlog.jar org.mpru.log.BinaryLogDecoder app.blog [app.log]</code></pre>
+ */
+public class BinaryLogDecoder {
+
+	private final MsgFormatter formatter=new MsgFormatter();
+	private final TimeRenderer headerTimeRenderer=new TimeRenderer();
+	private final ArrayList<String> patterns=new ArrayList<>();
+	private final ArrayList<String> prefixes=new ArrayList<>();
+	private final CRC32C crc=new CRC32C();
+	private byte[] rec=new byte[1024];
+	private int pos;
+	private int end;
+	private long prevTime;
+	private boolean isSession;
+	private long skippedBytes;
+	private int damagedCount;
+
+	public static void main(String[] args) throws IOException {
+		if(args.length<1) {
+			System.err.println("Usage: java "+BinaryLogDecoder.class.getName()+" <binary log file> [<text file>]");
+			System.exit(1);
+		}
+		BinaryLogDecoder decoder=new BinaryLogDecoder();
+		try(InputStream in=new FileInputStream(args[0]);
+				Writer out=new OutputStreamWriter(args.length>1?new FileOutputStream(args[1]):System.out, StandardCharsets.UTF_8)) {
+			decoder.decode(in, out);
+		}
+		if(decoder.getDamagedCount()>0) {
+			System.err.println("Damaged records: "+decoder.getDamagedCount()+", bytes skipped: "+decoder.getSkippedBytes());
+		}
+	}
+
+	/**
+	 * @return number of records skipped because of the checksum mismatch or wrong content
+	 */
+	public int getDamagedCount() {
+		return damagedCount;
+	}
+
+	public long getSkippedBytes() {
+		return skippedBytes;
+	}
+
+	/**
+	 * Decodes all the records of the stream
+	 * @param in
+	 * @param out
+	 * @throws IOException
+	 */
+	public void decode(InputStream in, Appendable out) throws IOException {
+		if(!in.markSupported()) in=new BufferedInputStream(in, 64*1024);
+		StringBuilder sb=new StringBuilder(500);
+		boolean isSync=true;
+		while(true) {
+			in.mark(MAX_RECORD_LENGTH+16);
+			int type=readRecord(in);
+			if(type==-1) break;
+			if(type!=0) {
+				sb.setLength(0);
+				try {
+					decodeRecord((byte) type, sb);
+					out.append(sb);
+				}catch(RuntimeException e) {
+					// the record is read correctly, but cannot be decoded (its dictionary record is damaged)
+					damagedCount++;
+				}
+				isSync=true;
+				continue;
+			}
+			// the record is damaged: skip the marker and look for the next one
+			if(isSync) damagedCount++;
+			isSync=false;
+			in.reset();
+			in.read();
+			skippedBytes++;
+		}
+	}
+
+	/**
+	 * Reads the record into rec
+	 * @param in
+	 * @return the record type, 0 if the record is damaged, -1 at the end of the stream
+	 * @throws IOException
+	 */
+	private int readRecord(InputStream in) throws IOException {
+		int b=in.read();
+		if(b<0) return -1;
+		if((byte) b!=MARKER) return 0;
+		int type=in.read();
+		if(type<=0) return type;
+		int len=0;
+		for(int shift=0;;shift+=7) {
+			b=in.read();
+			if(b<0 || shift>28) return 0;
+			len|=(b&0x7f)<<shift;
+			if((b&0x80)==0) break;
+		}
+		if(len<0 || len>MAX_RECORD_LENGTH) return 0;
+		if(rec.length<len+4) rec=new byte[Math.max(len+4, rec.length*2)];
+		int n=0;
+		while(n<len+4) {
+			int r=in.read(rec, n, len+4-n);
+			if(r<0) return 0;
+			n+=r;
+		}
+		crc.reset();
+		crc.update(type);
+		crc.update(rec, 0, len);
+		pos=len;
+		end=len+4;
+		if((int) crc.getValue()!=getInt()) return 0;
+		pos=0;
+		end=len;
+		return type;
+	}
+
+	private void decodeRecord(byte type, StringBuilder sb) {
+		switch(type) {
+			case REC_SESSION:
+				for(byte b: MAGIC) {
+					if(getByte()!=b) throw new IllegalStateException("Wrong magic");
+				}
+				if(getVarLong()>VERSION) throw new IllegalStateException("Unsupported version");
+				prevTime=getLong();
+				getFormat();
+				patterns.clear();
+				prefixes.clear();
+				isSession=true;
+				FileLogOut.appendFileHeader(sb, headerTimeRenderer, prevTime);
+				break;
+			case REC_FORMAT:
+				getFormat();
+				break;
+			case REC_PATTERN:
+				checkSession();
+				putDictString(patterns);
+				break;
+			case REC_PREFIX:
+				checkSession();
+				putDictString(prefixes);
+				break;
+			case REC_TEXT:
+			case REC_MSG:
+				checkSession();
+				Msg m=new Msg();
+				m.time=prevTime+unzigzag(getVarLong());
+				m.level=getByte();
+				m.prefix=getDictString(prefixes);
+				if(type==REC_TEXT) {
+					m.cachedText=getString();
+				}else {
+					m.pattern=getDictString(patterns);
+					int argCount=(int) getVarLong()-1;
+					if(argCount>=0) {
+						m.args=new Object[argCount];
+						for(int i=0;i<argCount;i++) {
+							m.args[i]=getArg();
+						}
+					}
+				}
+				formatter.appendText(m, sb, ILogger.FULL);
+				prevTime=m.time;
+				break;
+			default:
+				pos=end; // unknown record of the newer version
+		}
+		if(pos!=end) throw new IllegalStateException("Wrong record length");
+	}
+
+	private void checkSession() {
+		if(!isSession) throw new IllegalStateException("No session record");
+	}
+
+	private void getFormat() {
+		formatter.setLogMillis((getVarLong()&FLAG_MILLIS)!=0);
+		TimeZone tz=TimeZone.getTimeZone(getString());
+		formatter.setTimeZone(tz);
+		headerTimeRenderer.setTimeZone(tz);
+	}
+
+	private void putDictString(ArrayList<String> dict) {
+		int idx=(int) getVarLong()-ID_FIRST;
+		if(idx<0 || idx>=MAX_DICTIONARY_SIZE) throw new IllegalStateException("Wrong id");
+		while(dict.size()<=idx) dict.add(null); // the records of the damaged definitions are skipped
+		dict.set(idx, getString());
+	}
+
+	private String getDictString(ArrayList<String> dict) {
+		int id=(int) getVarLong();
+		if(id==ID_NONE) return null;
+		if(id==ID_INLINE) return getString();
+		String s=id-ID_FIRST<dict.size()?dict.get(id-ID_FIRST):null;
+		if(s==null) throw new IllegalStateException("Unknown id "+id);
+		return s;
+	}
+
+	private Object getArg() {
+		byte tag=getByte();
+		switch(tag) {
+			case ARG_NONE: return new MsgFormatter.ArgText("");
+			case ARG_NULL: return null;
+			case ARG_LONG: return unzigzag(getVarLong());
+			case ARG_DOUBLE: return Double.longBitsToDouble(getLong());
+			case ARG_FLOAT: return Float.intBitsToFloat(getInt());
+			case ARG_CHAR: return (char) getVarLong();
+			case ARG_TRUE: return Boolean.TRUE;
+			case ARG_FALSE: return Boolean.FALSE;
+			case ARG_TEXT: return new MsgFormatter.ArgText(getString());
+			case ARG_DATE: return new Date(unzigzag(getVarLong()));
+		}
+		throw new IllegalStateException("Unknown argument type "+tag);
+	}
+
+	private static long unzigzag(long v) {
+		return (v>>>1)^-(v&1);
+	}
+
+	private byte getByte() {
+		if(pos>=end) throw new IllegalStateException("Record end");
+		return rec[pos++];
+	}
+
+	private long getVarLong() {
+		long v=0;
+		for(int shift=0;shift<64;shift+=7) {
+			byte b=getByte();
+			v|=(long) (b&0x7f)<<shift;
+			if(b>=0) return v;
+		}
+		throw new IllegalStateException("Wrong varint");
+	}
+
+	private int getInt() {
+		if(pos+4>end) throw new IllegalStateException("Record end");
+		int v=(rec[pos]&0xff)|(rec[pos+1]&0xff)<<8|(rec[pos+2]&0xff)<<16|(rec[pos+3]&0xff)<<24;
+		pos+=4;
+		return v;
+	}
+
+	private long getLong() {
+		return getInt()&0xffffffffL|(long) getInt()<<32;
+	}
+
+	private String getString() {
+		int len=(int) getVarLong();
+		if(len<0 || pos+len>end) throw new IllegalStateException("Record end");
+		String s=new String(rec, pos, len, StandardCharsets.UTF_8);
+		pos+=len;
+		return s;
+	}
+}
@@ -0,0 +1,384 @@
+package org.mpru.log;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.TimeZone;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+
+/**
+ * File output writing messages in the compact binary form: the message pattern and arguments are stored
+ * instead of the formatted text, so no formatting is done in the logging process.
+ * Use BinaryLogDecoder to get the text, the same as FileLogOut prints.
+ * Properties, file rotation and .loc locking are the same as FileLogOut has. To use it instead of FileLogOut
+ * set system property org.mpru.log.FileOut=org.mpru.log.BinaryLogOut
+ * <p>
+ * The file is a sequence of records: MARKER, type, payload length (varint), payload, CRC32C of type and payload (4 bytes).
+ * Each file opening starts a session (REC_SESSION record) with own dictionaries: each distinct pattern and prefix
+ * is written once with its id (REC_PATTERN, REC_PREFIX records, ids are assigned sequentially from 2),
+ * then messages refer to them by id. Message record: time delta from the previous message (zigzag varint), level,
+ * prefix id, pattern id (0 - none, 1 - the string follows), argument count+1 (0 - no arguments), typed arguments.
+ * The message which text is already made (by other ILogOut or for mutable arguments) is stored as REC_TEXT.
+ * Integers are written as varints (7 bits per byte, lowest first), strings as UTF-8 length and bytes.
+ */
+public class BinaryLogOut extends FileLogOut {
+
+	static final byte MARKER=(byte) 0xB7;
+	static final byte[] MAGIC={'F', 'L', 'O', 'G'};
+	static final int VERSION=1;
+
+	static final byte REC_SESSION=1; // MAGIC, VERSION, start time (8 bytes), flags, time zone id
+	static final byte REC_FORMAT=2; // flags, time zone id (the formatter settings are changed)
+	static final byte REC_PATTERN=3; // id, pattern string
+	static final byte REC_PREFIX=4; // id, prefix string
+	static final byte REC_MSG=5;
+	static final byte REC_TEXT=6; // time delta, level, prefix id, text string
+
+	static final int FLAG_MILLIS=1;
+
+	static final int ID_NONE=0;
+	static final int ID_INLINE=1;
+	static final int ID_FIRST=2;
+
+	static final byte ARG_NONE=0; // no value (empty text)
+	static final byte ARG_NULL=1;
+	static final byte ARG_LONG=2; // zigzag varint
+	static final byte ARG_DOUBLE=3; // raw bits, 8 bytes
+	static final byte ARG_FLOAT=4; // raw bits, 4 bytes
+	static final byte ARG_CHAR=5; // varint
+	static final byte ARG_TRUE=6;
+	static final byte ARG_FALSE=7;
+	static final byte ARG_TEXT=8; // string appended as is
+	static final byte ARG_DATE=9; // zigzag varint millis
+
+	static final int MAX_RECORD_LENGTH=64*1024*1024;
+	/**
+	 * Max number of patterns (and prefixes) in the dictionary of the session, other ones are written inline
+	 */
+	protected static final int MAX_DICTIONARY_SIZE=65536;
+
+	private MsgFormatter formatter;
+	private final HashMap<String, Integer> patternIds=new HashMap<>();
+	private final HashMap<String, Integer> prefixIds=new HashMap<>();
+	private long prevTime;
+	private int flags;
+	private TimeZone timeZone;
+
+	private final CRC32C crc=new CRC32C();
+	private byte[] rec=new byte[1024];
+	private int recLen;
+	private int payloadStart;
+	private final StringBuilder argBuf=new StringBuilder();
+
+	public BinaryLogOut() {
+		isChannelMode=true;
+	}
+
+	@Override
+	public void setILogger(ILogger logger) {
+		super.setILogger(logger);
+		formatter=logger instanceof Logger?((Logger) logger).getMsgFormatter():new MsgFormatter();
+	}
+
+	@Override
+	protected void printToChannel(Msg m) throws IOException {
+		if(!isFileHeaderPrinted()) {
+			setFileHeaderPrinted(true);
+			startSession();
+		}
+		final MsgFormatter f=formatter;
+		int flags=f.isLogMillis()?FLAG_MILLIS:0;
+		TimeZone tz=f.timeRenderer.getTimeZone();
+		if(flags!=this.flags || !tz.equals(timeZone)) {
+			this.flags=flags;
+			timeZone=tz;
+			beginRecord(REC_FORMAT);
+			putFormat();
+			endRecord();
+		}
+		int prefixId=getId(m.prefix, prefixIds, REC_PREFIX);
+		if(m.cachedText!=null) {
+			beginRecord(REC_TEXT);
+			putMsgHeader(m, prefixId);
+			putString(m.cachedText);
+			endRecord();
+			return;
+		}
+		String pattern=m.pattern;
+		int patternId=pattern==null || pattern.length()==0?ID_NONE:getId(pattern, patternIds, REC_PATTERN);
+		beginRecord(REC_MSG);
+		putMsgHeader(m, prefixId);
+		putVarLong(patternId);
+		if(patternId==ID_INLINE) putString(pattern);
+		if(!m.hasArgs()) {
+			putVarLong(0);
+		}else {
+			final int argCount=m.getArgCount();
+			putVarLong(argCount+1);
+			// arguments not referenced by the pattern are not printed, so they are not stored
+			MsgPattern p=patternId==ID_NONE?null:formatter.getPattern(pattern);
+			if(m.args!=null) {
+				for(int i=0;i<argCount;i++) {
+					if(p!=null && p.isArgUsed(i)) putArg(m.args[i]);
+					else putByte(ARG_NONE);
+				}
+			}else {
+				for(int i=0;i<argCount;i++) {
+					if(p==null || !p.isArgUsed(i)) {
+						putByte(ARG_NONE);
+						continue;
+					}
+					long value=i==0?m.arg0:i==1?m.arg1:m.arg2;
+					switch((m.argKinds>>>(i*2))&3) {
+						case Msg.ARG_LONG:
+							putByte(ARG_LONG);
+							putVarLong(zigzag(value));
+							break;
+						case Msg.ARG_DOUBLE:
+							putByte(ARG_DOUBLE);
+							putLong(value);
+							break;
+						case Msg.ARG_OBJECT:
+							putArg(m.argObj);
+							break;
+						default:
+							putByte(ARG_NONE);
+					}
+				}
+			}
+		}
+		endRecord();
+	}
+
+	private void startSession() throws IOException {
+		patternIds.clear();
+		prefixIds.clear();
+		prevTime=System.currentTimeMillis();
+		flags=formatter.isLogMillis()?FLAG_MILLIS:0;
+		timeZone=formatter.timeRenderer.getTimeZone();
+		beginRecord(REC_SESSION);
+		for(byte b: MAGIC) {
+			putByte(b);
+		}
+		putVarLong(VERSION);
+		putLong(prevTime);
+		putFormat();
+		endRecord();
+	}
+
+	private void putFormat() {
+		putVarLong(flags);
+		putString(timeZone.getID());
+	}
+
+	private void putMsgHeader(Msg m, int prefixId) {
+		putVarLong(zigzag(m.time-prevTime));
+		prevTime=m.time;
+		putByte(m.level);
+		putVarLong(prefixId);
+		if(prefixId==ID_INLINE) putString(m.prefix);
+	}
+
+	/**
+	 * @param s
+	 * @param ids
+	 * @param recType
+	 * @return dictionary id of the string (the string is written to the dictionary first time), ID_NONE for null,
+	 * ID_INLINE if the dictionary is full
+	 * @throws IOException
+	 */
+	private int getId(String s, HashMap<String, Integer> ids, byte recType) throws IOException {
+		if(s==null) return ID_NONE;
+		Integer id=ids.get(s);
+		if(id!=null) return id;
+		if(ids.size()>=MAX_DICTIONARY_SIZE) return ID_INLINE;
+		id=ids.size()+ID_FIRST;
+		ids.put(s, id);
+		beginRecord(recType);
+		putVarLong(id);
+		putString(s);
+		endRecord();
+		return id;
+	}
+
+	private void putArg(Object value) {
+		if(value instanceof LazyArg || value instanceof Supplier) {
+			value=formatter.evalLazyArg(value);
+		}
+		if(value==null) {
+			putByte(ARG_NULL);
+		}else if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			putByte(ARG_LONG);
+			putVarLong(zigzag(((Number) value).longValue()));
+		}else if(value instanceof Double) {
+			putByte(ARG_DOUBLE);
+			putLong(Double.doubleToRawLongBits((Double) value));
+		}else if(value instanceof Float) {
+			putByte(ARG_FLOAT);
+			putInt(Float.floatToRawIntBits((Float) value));
+		}else if(value instanceof Character) {
+			putByte(ARG_CHAR);
+			putVarLong((Character) value);
+		}else if(value instanceof Boolean) {
+			putByte((Boolean) value?ARG_TRUE:ARG_FALSE);
+		}else if(value.getClass()==Date.class) {
+			putByte(ARG_DATE);
+			putVarLong(zigzag(((Date) value).getTime()));
+		}else if(value instanceof String && ((String) value).length()<=formatter.MAX_PARAMETER_LENGTH) {
+			putByte(ARG_TEXT);
+			putString((String) value);
+		}else {
+			StringBuilder sb=argBuf;
+			sb.setLength(0);
+			formatter.appendParameter(value, sb);
+			putByte(ARG_TEXT);
+			putString(sb);
+			if(sb.capacity()>MAX_RECORD_LENGTH/64) {
+				sb.setLength(0);
+				sb.trimToSize();
+			}
+		}
+	}
+
+	private void beginRecord(byte type) {
+		recLen=0;
+		putByte(MARKER);
+		putByte(type);
+		payloadStart=recLen;
+	}
+
+	/**
+	 * Inserts the payload length, appends the checksum and writes the record
+	 * @throws IOException
+	 */
+	private void endRecord() throws IOException {
+		int payloadLen=recLen-payloadStart;
+		int lenSize=varIntSize(payloadLen);
+		ensure(lenSize+4);
+		System.arraycopy(rec, payloadStart, rec, payloadStart+lenSize, payloadLen);
+		int p=payloadStart;
+		for(int v=payloadLen;;v>>>=7) {
+			if((v&~0x7f)==0) {
+				rec[p++]=(byte) v;
+				break;
+			}
+			rec[p++]=(byte) (v&0x7f|0x80);
+		}
+		recLen+=lenSize;
+		crc.reset();
+		crc.update(rec, 1, 1);
+		crc.update(rec, payloadStart+lenSize, payloadLen);
+		putInt((int) crc.getValue());
+		writeBytes(rec, 0, recLen);
+		if(rec.length>MAX_RECORD_LENGTH/64) rec=new byte[1024]; // do not keep the huge buffer
+	}
+
+	static int varIntSize(int v) {
+		int size=1;
+		while((v>>>=7)!=0) size++;
+		return size;
+	}
+
+	static long zigzag(long v) {
+		return (v<<1)^(v>>63);
+	}
+
+	private void ensure(int n) {
+		if(recLen+n>rec.length) {
+			byte[] newRec=new byte[Math.max(rec.length*2, recLen+n)];
+			System.arraycopy(rec, 0, newRec, 0, recLen);
+			rec=newRec;
+		}
+	}
+
+	private void putByte(byte b) {
+		ensure(1);
+		rec[recLen++]=b;
+	}
+
+	private void putVarLong(long v) {
+		ensure(10);
+		while((v&~0x7fL)!=0) {
+			rec[recLen++]=(byte) (v&0x7f|0x80);
+			v>>>=7;
+		}
+		rec[recLen++]=(byte) v;
+	}
+
+	private void putInt(int v) {
+		ensure(4);
+		rec[recLen++]=(byte) v;
+		rec[recLen++]=(byte) (v>>8);
+		rec[recLen++]=(byte) (v>>16);
+		rec[recLen++]=(byte) (v>>24);
+	}
+
+	private void putLong(long v) {
+		putInt((int) v);
+		putInt((int) (v>>32));
+	}
+
+	/**
+	 * Writes UTF-8 length and bytes (unpaired surrogates are written as '?' like String.getBytes does)
+	 * @param s
+	 */
+	private void putString(CharSequence s) {
+		final int len=s.length();
+		int size=len;
+		for(int i=0;i<len;i++) {
+			char c=s.charAt(i);
+			if(c>=0x80) {
+				if(c<0x800) size++;
+				else if(Character.isHighSurrogate(c) && i+1<len && Character.isLowSurrogate(s.charAt(i+1))) {
+					size+=2; // 4 bytes per 2 chars
+					i++;
+				}else if(Character.isSurrogate(c)) {
+					// '?'
+				}else size+=2;
+			}
+		}
+		putVarLong(size);
+		ensure(size);
+		final byte[] b=rec;
+		int p=recLen;
+		for(int i=0;i<len;i++) {
+			char c=s.charAt(i);
+			if(c<0x80) {
+				b[p++]=(byte) c;
+			}else if(c<0x800) {
+				b[p++]=(byte) (0xc0|c>>6);
+				b[p++]=(byte) (0x80|c&0x3f);
+			}else if(Character.isHighSurrogate(c) && i+1<len && Character.isLowSurrogate(s.charAt(i+1))) {
+				int cp=Character.toCodePoint(c, s.charAt(++i));
+				b[p++]=(byte) (0xf0|cp>>18);
+				b[p++]=(byte) (0x80|cp>>12&0x3f);
+				b[p++]=(byte) (0x80|cp>>6&0x3f);
+				b[p++]=(byte) (0x80|cp&0x3f);
+			}else if(Character.isSurrogate(c)) {
+				b[p++]='?';
+			}else {
+				b[p++]=(byte) (0xe0|c>>12);
+				b[p++]=(byte) (0x80|c>>6&0x3f);
+				b[p++]=(byte) (0x80|c&0x3f);
+			}
+		}
+		recLen=p;
+	}
+
+	@Override
+	public boolean setProperty(String name, Object value) {
+		if(FILE_MODE.equals(name)) {
+			return false; // always binary
+		}
+		return super.setProperty(name, value);
+	}
+
+	@Override
+	public String getProperty(String name) {
+		if(FILE_MODE.equals(name)) {
+			return "binary";
+		}
+		return super.getProperty(name);
+	}
+}
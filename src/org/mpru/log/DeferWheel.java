@@ -0,0 +1,159 @@
+package org.mpru.log;
+
+/**
+ * Hashed timer wheel of deferred messages. Messages are linked into the bucket of their print time tick
+ * (doubly linked list through Msg fields), so scheduling and cancelling are O(1) and each expire() call
+ * visits only the buckets of the ticks passed since the previous call. The messages expired are moved to
+ * the ready list, from which the logger takes them for printing.
+ */
+final class DeferWheel {
+
+	static final byte SCHEDULED=1;
+	static final byte CANCELLED=2;
+	static final byte FIRED=3;
+
+	private final Msg[] heads;
+	private final Msg[] tails;
+	private final int mask;
+	private final long tickMillis;
+	private long currentTick; // the last tick which bucket is fully processed
+	private int size;
+	private int capacity;
+
+	private Msg readyHead;
+	private Msg readyTail;
+	private int readySize;
+
+	/**
+	 * @param wheelSize - number of buckets (rounded up to the power of 2)
+	 * @param tickMillis - bucket time span
+	 * @param capacity - max number of scheduled messages, <=0 - unlimited
+	 */
+	DeferWheel(int wheelSize, long tickMillis, int capacity) {
+		wheelSize=Integer.highestOneBit(Math.max(2, wheelSize)-1)<<1;
+		heads=new Msg[wheelSize];
+		tails=new Msg[wheelSize];
+		mask=wheelSize-1;
+		this.tickMillis=tickMillis;
+		this.capacity=capacity;
+		currentTick=System.currentTimeMillis()/tickMillis-1;
+	}
+
+	synchronized void setCapacity(int capacity) {
+		this.capacity=capacity;
+	}
+
+	synchronized int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return number of scheduled and ready (expired, but not taken yet) messages
+	 */
+	synchronized int size() {
+		return size+readySize;
+	}
+
+	/**
+	 * Schedules the message to be ready at m.printAt
+	 * @param m
+	 * @return false if the wheel is full
+	 */
+	synchronized boolean schedule(Msg m) {
+		if(capacity>0 && size>=capacity) return false;
+		long tick=m.printAt/tickMillis;
+		if(tick<=currentTick) tick=currentTick+1;
+		int idx=(int) tick&mask;
+		m.deferWheel=this;
+		m.deferBucket=idx;
+		m.deferPrev=tails[idx];
+		m.deferNext=null;
+		if(tails[idx]==null) heads[idx]=m;
+		else tails[idx].deferNext=m;
+		tails[idx]=m;
+		m.deferState=SCHEDULED;
+		size++;
+		return true;
+	}
+
+	/**
+	 * @param m
+	 * @return true if the message was scheduled and now cancelled, false if it is already expired (or not deferred at all,
+	 * or scheduled in another wheel)
+	 */
+	synchronized boolean cancel(Msg m) {
+		if(m.deferState!=SCHEDULED || m.deferWheel!=this) return false;
+		unlink(m, m.deferBucket);
+		m.deferState=CANCELLED;
+		size--;
+		return true;
+	}
+
+	private void unlink(Msg m, int idx) {
+		Msg prev=m.deferPrev;
+		Msg next=m.deferNext;
+		if(prev==null) heads[idx]=next;
+		else prev.deferNext=next;
+		if(next==null) tails[idx]=prev;
+		else next.deferPrev=prev;
+		m.deferPrev=m.deferNext=null;
+	}
+
+	/**
+	 * Moves the messages with printAt<=time to the ready list
+	 * @param time - current time or Long.MAX_VALUE to expire all the messages
+	 */
+	synchronized void expire(long time) {
+		if(size==0) {
+			if(time!=Long.MAX_VALUE) currentTick=time/tickMillis-1;
+			return;
+		}
+		long tick=time==Long.MAX_VALUE?Long.MAX_VALUE:time/tickMillis;
+		long ticks=Math.min(tick-currentTick, heads.length);
+		int idx=(int) currentTick&mask;
+		while(ticks-->0 && size>0) {
+			idx=(idx+1)&mask;
+			Msg m=heads[idx];
+			while(m!=null) {
+				Msg next=m.deferNext;
+				if(m.printAt<=time) {
+					unlink(m, idx);
+					m.deferState=FIRED;
+					size--;
+					if(readyTail==null) readyHead=m;
+					else readyTail.deferNext=m;
+					readyTail=m;
+					readySize++;
+				}
+				m=next;
+			}
+		}
+		// the bucket of the current tick can have messages to be printed later in this tick, so it is visited again next time
+		if(time!=Long.MAX_VALUE) currentTick=tick-1;
+	}
+
+	/**
+	 * @return the first ready message or null
+	 */
+	synchronized Msg pollReady() {
+		Msg m=readyHead;
+		if(m!=null) {
+			readyHead=m.deferNext;
+			if(readyHead==null) readyTail=null;
+			m.deferNext=null;
+			readySize--;
+		}
+		return m;
+	}
+
+	/**
+	 * Returns the message taken by {@link #pollReady()} back to the head of the ready list (when it cannot be printed now)
+	 * @param m
+	 */
+	synchronized void unpollReady(Msg m) {
+		m.deferNext=readyHead;
+		readyHead=m;
+		if(readyTail==null) readyTail=m;
+		readySize++;
+	}
+}
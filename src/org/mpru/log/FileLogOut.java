@@ -3,19 +3,69 @@ package org.mpru.log;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
-import java.util.Date;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
 
 public class FileLogOut implements ILogOut {
 
 	public static final String MAX_FILE_SIZE = "maxLogFileSize";
+	/**
+	 * Property selecting how the file is written: FILE_MODE_WRITER (default, BufferedWriter) or FILE_MODE_CHANNEL
+	 * (text is encoded to the direct buffer which is written by FileChannel once per flush)
+	 */
+	public static final String FILE_MODE = "fileMode";
+	public static final String FILE_MODE_WRITER = "writer";
+	public static final String FILE_MODE_CHANNEL = "channel";
+	protected static final int OUT_BUFFER_SIZE=64*1024;
+	/**
+	 * The file of the next day ($(filedate) in the path) is locked and opened this time before the day start
+	 */
+	protected static final long NEXT_FILE_LOCK_MILLIS=60*1000;
+	/**
+	 * Properties of the finished log files processing in the background (see LogArchiver):
+	 * gzip compression (true/false), max total size of the log files (bytes), max number of the files, max age (days).
+	 * The size, number and age limits are not applied if <=0 (default)
+	 */
+	public static final String COMPRESS = "compressLogs";
+	public static final String MAX_TOTAL_SIZE = "maxLogTotalSize";
+	public static final String MAX_FILES = "maxLogFiles";
+	public static final String MAX_AGE_DAYS = "maxLogAgeDays";
+	/**
+	 * Read only properties: bytes written to the log files, number of the file rotations (by size or date)
+	 */
+	public static final String BYTES_WRITTEN = "bytesWritten";
+	public static final String ROTATIONS = "rotations";
 	
+	private static final int BATCH_BUF_SIZE=64*1024;
+
 	private final Object fileLock=new Object();
+	private final Object outLock=new Object();
 	
+	protected final TimeRenderer timeRenderer=new TimeRenderer();
+
+	/**
+	 * @deprecated not used: file dates are rendered by {@link #timeRenderer}. Kept for the existing subclasses
+	 */
+	@Deprecated
 	protected java.text.SimpleDateFormat f_filedate = new java.text.SimpleDateFormat("yyyy_MM_dd");
+	/**
+	 * @deprecated not used, see {@link #f_filedate}
+	 */
+	@Deprecated
 	protected java.text.SimpleDateFormat f_date = new java.text.SimpleDateFormat("yyyy-MM-dd");
 	
 	private ILogger l;
@@ -24,33 +74,74 @@ public class FileLogOut implements ILogOut {
 	private long maxLogFileSize=1000*1024*1024;
 	private boolean isFileHeaderPrinted;
 	private String charsetName="utf-8";
+	private final LogArchiver archiver=new LogArchiver();
+	private final LongAdder bytesWritten=new LongAdder();
+	private final LongAdder rotations=new LongAdder();
 
 	private Writer logFileWriter;
 
+	protected boolean isChannelMode;
+	private FileChannel logChannel;
+	protected long fileLength; // channel mode: current file length
+	private ByteBuffer outBuf;
+	private CharsetEncoder encoder;
+	private char asciiLimit; // chars below are encoded as one byte of the same value
+	private final StringBuilder lineBuf=new StringBuilder(500);
+	private StringBuilder batchBuf=new StringBuilder(BATCH_BUF_SIZE); // writer mode, guarded by outLock
+	private char[] batchChars=new char[BATCH_BUF_SIZE];
+	private final char[] scratchChars=new char[1024];
+	private final byte[] scratchBytes=new byte[1024];
+	private final boolean isPrintOverridden=isPrintOverridden(getClass());
+
+	/**
+	 * @return true if a subclass overrides print()
+	 */
+	private static boolean isPrintOverridden(Class<?> c) {
+		try {
+			return c.getMethod("print", Msg.class).getDeclaringClass()!=FileLogOut.class;
+		}catch(NoSuchMethodException e) {
+			return false;
+		}
+	}
+
 	String getRealLogPath(String pattern) {
+		return getRealLogPath(pattern, System.currentTimeMillis());
+	}
+
+	String getRealLogPath(String pattern, long time) {
 		if(pattern!=null) {
-			if(pattern.indexOf("$(filedate)")>=0){
-				synchronized(f_filedate) {
-					pattern=pattern.replaceAll("(?i)\\$\\(filedate\\)", f_filedate.format(new Date()));
-				}
+			if(isDated(pattern)){
+				StringBuilder sb=new StringBuilder(10);
+				timeRenderer.appendDate(time, sb, '_');
+				pattern=pattern.replaceAll("(?i)\\$\\(filedate\\)", sb.toString());
 			}
 		}
 		return pattern;
 	}
+
+	private static boolean isDated(String pattern) {
+		return pattern.indexOf("$(filedate)")>=0;
+	}
 	
 	@Override
 	public void print(Msg m) throws IOException {
 		if(m.isFile) {
+			if(rollTime!=0 && m.time>=rollTime) {
+				roll(m.time);
+			}
+			if(isChannelMode) {
+				synchronized(outLock) {
+					if(logChannel!=null) {
+						printToChannel(m);
+					}
+				}
+				return;
+			}
 			Writer fw = logFileWriter;
 			if(fw!=null) {
 				StringBuilder sb=new StringBuilder(500);
 				if(!isFileHeaderPrinted) {
-					isFileHeaderPrinted=true;
-					sb.append("=========================").append(MsgFormatter.EOL).append("======== started logging date:");
-					synchronized(f_date) {
-						sb.append(f_date.format(new Date()));
-					}
-					sb.append(MsgFormatter.EOL);
+					appendFileHeader(sb);
 				}
 				l.appendText(m, sb, ILogger.FULL);
 				fw.write(sb.toString());
@@ -58,34 +149,249 @@ public class FileLogOut implements ILogOut {
 		}
 	}
 
-	protected void closeFile() {
+	/**
+	 * Prints the messages between the file rollovers with one output lock and (writer mode) one write call.
+	 * If a subclass overrides print(), calls it for each message (otherwise printToChannel() is called in channel mode)
+	 */
+	@Override
+	public void printBatch(Msg[] msgs, int from, int to) throws IOException {
+		if(isPrintOverridden) {
+			for(int i=from;i<to;i++) {
+				print(msgs[i]);
+			}
+			return;
+		}
+		int i=from;
+		while(i<to) {
+			Msg m=msgs[i];
+			if(rollTime!=0 && m.isFile && m.time>=rollTime) {
+				roll(m.time);
+			}
+			long rollTime=this.rollTime;
+			int end=i+1;
+			while(end<to && (rollTime==0 || !msgs[end].isFile || msgs[end].time<rollTime)) end++;
+			printToFile(msgs, i, end);
+			i=end;
+		}
+	}
+
+	private void printToFile(Msg[] msgs, int from, int to) throws IOException {
+		synchronized(outLock) {
+			if(isChannelMode) {
+				if(logChannel==null) return;
+				for(int i=from;i<to;i++) {
+					if(msgs[i].isFile) printToChannel(msgs[i]);
+				}
+				return;
+			}
+			Writer fw = logFileWriter;
+			if(fw==null) return;
+			StringBuilder sb=batchBuf;
+			sb.setLength(0);
+			for(int i=from;i<to;i++) {
+				Msg m=msgs[i];
+				if(!m.isFile) continue;
+				if(!isFileHeaderPrinted) {
+					appendFileHeader(sb);
+				}
+				l.appendText(m, sb, ILogger.FULL);
+			}
+			int len=sb.length();
+			if(len==0) return;
+			if(batchChars.length<len) batchChars=new char[Math.max(len, batchChars.length*2)];
+			sb.getChars(0, len, batchChars, 0);
+			if(sb.capacity()>BATCH_BUF_SIZE*4) {
+				// do not keep the memory taken by a huge batch
+				batchBuf=new StringBuilder(BATCH_BUF_SIZE);
+				batchChars=new char[BATCH_BUF_SIZE];
+				fw.write(sb.toString());
+			}else fw.write(batchChars, 0, len);
+		}
+	}
+
+	/**
+	 * Prints the message to the output buffer (channel mode). Called under the output lock when the file is open
+	 * @param m
+	 * @throws IOException
+	 */
+	protected void printToChannel(Msg m) throws IOException {
+		StringBuilder sb=lineBuf;
+		sb.setLength(0);
+		if(!isFileHeaderPrinted) {
+			appendFileHeader(sb);
+		}
+		l.appendText(m, sb, ILogger.FULL);
+		writeText(sb);
+	}
+
+	protected void appendFileHeader(StringBuilder sb) {
+		isFileHeaderPrinted=true;
+		appendFileHeader(sb, timeRenderer, System.currentTimeMillis());
+	}
+
+	static void appendFileHeader(StringBuilder sb, TimeRenderer timeRenderer, long time) {
+		sb.append("=========================").append(MsgFormatter.EOL).append("======== started logging date:");
+		timeRenderer.appendDate(time, sb, '-');
+		sb.append(MsgFormatter.EOL);
+	}
+
+	protected boolean isFileHeaderPrinted() {
+		return isFileHeaderPrinted;
+	}
+
+	protected void setFileHeaderPrinted(boolean isPrinted) {
+		isFileHeaderPrinted=isPrinted;
+	}
+
+	/**
+	 * Encodes the text to the output buffer (channel mode), writing the buffer when it is full
+	 * @param s
+	 * @throws IOException
+	 */
+	protected void writeText(CharSequence s) throws IOException {
+		final ByteBuffer buf=outBuf;
+		final int len=s.length();
+		final char asciiLimit=this.asciiLimit;
+		final char[] chars=scratchChars;
+		final byte[] bytes=scratchBytes;
+		int i=0;
+		while(i<len) {
+			int n=Math.min(Math.min(len-i, buf.remaining()), chars.length);
+			if(n==0) {
+				writeOut();
+				continue;
+			}
+			if(s instanceof StringBuilder) ((StringBuilder) s).getChars(i, i+n, chars, 0);
+			else if(s instanceof String) ((String) s).getChars(i, i+n, chars, 0);
+			else for(int j=0;j<n;j++) chars[j]=s.charAt(i+j);
+			int k=0;
+			char c;
+			while(k<n && (c=chars[k])<asciiLimit) {
+				bytes[k++]=(byte) c;
+			}
+			buf.put(bytes, 0, k);
+			i+=k;
+			if(k<n) i=encodeNonAscii(s, i, len);
+		}
+	}
+
+	/**
+	 * Puts the bytes to the output buffer (channel mode), writing the buffer when it is full
+	 * @param bytes
+	 * @param off
+	 * @param len
+	 * @throws IOException
+	 */
+	protected void writeBytes(byte[] bytes, int off, int len) throws IOException {
+		final ByteBuffer buf=outBuf;
+		while(len>0) {
+			int n=Math.min(len, buf.remaining());
+			if(n==0) {
+				writeOut();
+				continue;
+			}
+			buf.put(bytes, off, n);
+			off+=n;
+			len-=n;
+		}
+	}
+
+	private int encodeNonAscii(CharSequence s, int from, int len) throws IOException {
+		int to=from+1;
+		while(to<len && s.charAt(to)>=asciiLimit) to++;
+		CharBuffer cb=CharBuffer.wrap(s, from, to);
+		encoder.reset();
+		while(encoder.encode(cb, outBuf, true)==CoderResult.OVERFLOW) {
+			writeOut();
+		}
+		while(encoder.flush(outBuf)==CoderResult.OVERFLOW) {
+			writeOut();
+		}
+		return to;
+	}
+
+	private void writeOut() throws IOException {
+		ByteBuffer buf=outBuf;
+		buf.flip();
+		bytesWritten.add(buf.remaining());
+		try {
+			writeBuffer(buf);
+		}finally {
+			buf.clear();
+		}
+	}
+
+	/**
+	 * Writes all the bytes remaining in the buffer to the file (channel mode)
+	 * @param buf
+	 * @throws IOException
+	 */
+	protected void writeBuffer(ByteBuffer buf) throws IOException {
+		// FileChannel is closed when the writing thread is interrupted (the application thread printing
+		// on the full buffer can be), so the interrupt is postponed, and the channel is reopened if interrupted while writing
+		boolean isInterrupted=Thread.interrupted();
+		try {
+			while(buf.hasRemaining()) {
+				try {
+					fileLength+=logChannel.write(buf);
+				}catch(ClosedByInterruptException e) {
+					isInterrupted|=Thread.interrupted();
+					logChannel=new FileOutputStream(logPath, true).getChannel();
+				}
+			}
+		}finally {
+			if(isInterrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	protected void closeOutput() {
 		Writer logFileWriter = this.logFileWriter;
 		if(logFileWriter!=null) {
-			synchronized(fileLock) {
+			try {
+				logFileWriter.flush();
+			}catch(Exception e){
+				l.reportInternalError("file flush", e);
+			}
+			this.logFileWriter=null;
+			try{
+				logFileWriter.close();
+			}catch(Exception e){
+				l.reportInternalError("file close", e);
+			}
+		}
+		FileChannel logChannel = this.logChannel;
+		if(logChannel!=null) {
+			synchronized(outLock) {
 				try {
-					logFileWriter.flush();
+					if(outBuf.position()>0) writeOut();
 				}catch(Exception e){
 					l.reportInternalError("file flush", e);
 				}
-				this.logFileWriter=null;
-				try{
-					logFileWriter.close();
-				}catch(Exception e){
-					l.reportInternalError("file close", e);
-				}
-				try{
-					fLock.release();
-					fLock=null;
-				}catch(Exception e){
-					l.reportInternalError("lock release", e);
-				}
-				try{
-					locFOS.close();
-					locFOS=null;
-				}catch(Exception e){
-					l.reportInternalError("lock close", e);
-				}
-				locFile.delete();
+				this.logChannel=null;
+			}
+			try{
+				closeChannel(logChannel);
+			}catch(Exception e){
+				l.reportInternalError("file close", e);
+			}
+		}
+	}
+
+	/**
+	 * Closes the file channel (channel mode). The output buffer is already written
+	 * @param channel
+	 * @throws IOException
+	 */
+	protected void closeChannel(FileChannel channel) throws IOException {
+		channel.close();
+	}
+
+	protected void closeFile() {
+		if(logFileWriter!=null || logChannel!=null) {
+			synchronized(fileLock) {
+				closeOutput();
+				locked.release(l);
+				locked=null;
 				logPath=null;
 			}
 		}
@@ -94,95 +400,310 @@ public class FileLogOut implements ILogOut {
 	public void setPath(String path, boolean isForce) {
 		if(isForce || logPath==null) {
 			logPathTempl=path;
+			releaseNextFile();
 			reopen();
 		}
 	}
 	
 	private void reopen() {
 		closeFile();
-		openFile(logPathTempl);
+		openFile(logPathTempl, System.currentTimeMillis());
+	}
+
+	/**
+	 * Log file with .loc file lock held
+	 */
+	private static final class LockedFile {
+		final String logPath;
+		final File locFile;
+		final FileOutputStream locFOS;
+		final FileLock fLock;
+		FileOutputStream stream; // the log file opened in advance (see lockNextFile()) or null
+
+		LockedFile(String logPath, File locFile, FileOutputStream locFOS, FileLock fLock) {
+			this.logPath=logPath;
+			this.locFile=locFile;
+			this.locFOS=locFOS;
+			this.fLock=fLock;
+		}
+
+		void release(ILogger l) {
+			closeStream(l);
+			// deleted while locked, so the lock of the next file user is not deleted (fails on Windows)
+			boolean isLocDeleted=locFile.delete();
+			try{
+				fLock.release();
+			}catch(Exception e){
+				l.reportInternalError("lock release", e);
+			}
+			try{
+				locFOS.close();
+			}catch(Exception e){
+				l.reportInternalError("lock close", e);
+			}
+			if(!isLocDeleted) locFile.delete();
+		}
+
+		void closeStream(ILogger l) {
+			if(stream!=null) {
+				try{
+					stream.close();
+				}catch(Exception e){
+					l.reportInternalError("file close", e);
+				}
+				stream=null;
+			}
+		}
 	}
 
-	private FileLock fLock;
-	private FileOutputStream locFOS;
-	private File locFile;
+	private LockedFile locked;
+	private LockedFile nextLocked; // the file of the next day locked in advance
+	private volatile long rollTime; // start of the next day if the path has $(filedate), 0 - no time rollover
+	private long nextLockRollTime; // rollTime of the last lockNextFile() attempt
+	private FileOutputStream preopened; // the stream of the file opened in advance, taken by openOutput(), guarded by fileLock
+
+	/**
+	 * Switches to the file of the next day. The file is locked and opened in advance (see flush()),
+	 * so only the output is made of the opened stream here (the file is locked and opened here if it failed in advance)
+	 * @param time - time of the message to print to the new file
+	 */
+	private void roll(long time) {
+		synchronized(fileLock) {
+			if(rollTime==0 || time<rollTime) return;
+			LockedFile next=nextLocked;
+			nextLocked=null;
+			rotations.increment();
+			closeFile();
+			if(next!=null) {
+				if(timeRenderer.getNextDayStart(time)==timeRenderer.getNextDayStart(rollTime)) {
+					openFile(next, time);
+				}else next.release(l);
+			}
+			if(logPath==null) {
+				openFile(logPathTempl, time);
+			}
+		}
+	}
 
-	private void openFile(String logPath) {
+	private void lockNextFile() {
+		synchronized(fileLock) {
+			if(nextLocked!=null || logPath==null || rollTime==0 || nextLockRollTime==rollTime) return;
+			nextLockRollTime=rollTime; // one attempt per day, if it fails, roll() opens the file
+			try {
+				nextLocked=lockFile(getRealLogPath(logPathTempl, rollTime), false);
+			}catch(Exception e){
+				l.reportInternalError("lock next file", e);
+				return;
+			}
+			try {
+				nextLocked.stream=new FileOutputStream(nextLocked.logPath, true);
+			}catch(Exception e){
+				l.reportInternalError("open next file", e);
+			}
+		}
+	}
+
+	private void releaseNextFile() {
+		synchronized(fileLock) {
+			if(nextLocked!=null) {
+				nextLocked.release(l);
+				nextLocked=null;
+			}
+		}
+	}
+
+	private void openFile(String logPath, long time) {
 		if(logPath!=null && logPath.length()>0) {
-			logPath=getRealLogPath(logPath);
+			logPath=getRealLogPath(logPath, time);
 			try{
 				synchronized(fileLock) {
-					int ps=logPath.lastIndexOf('.');
-					if(ps<0) {
-						logPath=logPath+".log";
-						ps=logPath.lastIndexOf('.');
-					}
-					final String logPrePath=logPath.substring(0, ps);
-					final String logExt=logPath.substring(ps);
-					String locPath;
-
-					int suffix=0;
-					while(true) {
-						if(maxLogFileSize<=0 || maxLogFileSize>new File(logPath).length()) {
-							if(suffix>0) {
-								locPath=logPrePath+'_'+suffix+".loc";
-							}else locPath=logPrePath+".loc";
-							File locFile=new File(locPath);
-							locFile.getParentFile().mkdirs();
-							FileOutputStream locFOS=null;
-							FileLock fLock=null;
-							try {
-								locFile.deleteOnExit();
-								locFOS = new FileOutputStream(locFile, true);
-								fLock = locFOS.getChannel().tryLock();
-
-								if(fLock!=null) {
-									FileOutputStream fileStream = new FileOutputStream(logPath, true);
-
-									isFileHeaderPrinted=false;
-									logFileWriter = new BufferedWriter(new OutputStreamWriter(fileStream, charsetName));
-									this.fLock=fLock;
-									this.locFOS=locFOS;
-									this.locFile=locFile;
-									this.logPath=logPath;
-									break;
-								}
-							}catch(Exception ignore) {
-							}
-							if(fLock!=null) {
-								try {
-									fLock.release();
-								}catch(Exception ignore) {
-								}
-							}
-							if(locFOS!=null) {
-								try {
-									locFOS.close();
-								}catch(Exception ignore) {
-								}
-								locFile.delete();
-							}
-						}
-						suffix++;
-						if(suffix>10000) { // because size limit counts here
-							throw new RuntimeException("Cannot create log file using .loc: "+logPath);
-						}
-						logPath=logPrePath+'_'+suffix+logExt;
-					}
+					openFile(lockFile(logPath, true), time);
 				}
-				l.log(null, "Log file: "+logPath, ILog.DEBUG_NOH, null, true, false, 0);
 			}catch(Exception e){
 				l.reportInternalError("open file", e);
 			}
 		}
 	}
 
+	/**
+	 * @param lf - locked file, its output is opened if not yet (of the stream opened in advance if any)
+	 * @param time
+	 */
+	private void openFile(LockedFile lf, long time) {
+		if(logFileWriter==null && logChannel==null) {
+			preopened=lf.stream;
+			lf.stream=null;
+			try {
+				isFileHeaderPrinted=false;
+				openOutput(lf.logPath);
+			}catch(Exception e){
+				lf.release(l);
+				l.reportInternalError("open file", e);
+				return;
+			}finally {
+				if(preopened!=null) {
+					// not taken by openOutput() of a subclass
+					lf.stream=preopened;
+					preopened=null;
+					lf.closeStream(l);
+				}
+			}
+		}else lf.closeStream(l);
+		locked=lf;
+		this.logPath=lf.logPath;
+		rollTime=isDated(logPathTempl)?timeRenderer.getNextDayStart(time):0;
+		l.log(null, "Log file: "+logPath, ILog.DEBUG_NOH, null, true, false, 0);
+		archiver.submit(l, logPathTempl, logPath);
+	}
+
+	/**
+	 * Locks the log file (or the next one by the suffix _N if the file is used or its size exceeds the limit)
+	 * @param logPath - the real path
+	 * @param isOpen - open the file output too (the next file is tried if the file cannot be opened)
+	 * @return locked file
+	 */
+	private LockedFile lockFile(String logPath, boolean isOpen) {
+		int ps=logPath.lastIndexOf('.');
+		if(ps<0) {
+			logPath=logPath+".log";
+			ps=logPath.lastIndexOf('.');
+		}
+		final String logPrePath=logPath.substring(0, ps);
+		final String logExt=logPath.substring(ps);
+		String locPath;
+
+		int suffix=0;
+		while(true) {
+			// the name of the compressed file is not reused while it exists (see LogArchiver)
+			if((maxLogFileSize<=0 || maxLogFileSize>new File(logPath).length()) && !new File(logPath+LogArchiver.GZ_EXT).exists()) {
+				if(suffix>0) {
+					locPath=logPrePath+'_'+suffix+".loc";
+				}else locPath=logPrePath+".loc";
+				File locFile=new File(locPath);
+				locFile.getParentFile().mkdirs();
+				FileOutputStream locFOS=null;
+				FileLock fLock=null;
+				try {
+					locFile.deleteOnExit();
+					locFOS = new FileOutputStream(locFile, true);
+					fLock = locFOS.getChannel().tryLock();
+
+					if(fLock!=null) {
+						if(isOpen) {
+							isFileHeaderPrinted=false;
+							openOutput(logPath);
+						}
+						return new LockedFile(logPath, locFile, locFOS, fLock);
+					}
+				}catch(Exception ignore) {
+				}
+				if(fLock!=null) {
+					try {
+						fLock.release();
+					}catch(Exception ignore) {
+					}
+				}
+				if(locFOS!=null) {
+					try {
+						locFOS.close();
+					}catch(Exception ignore) {
+					}
+					// .loc of the file used by another process must stay (LogArchiver checks it)
+					if(fLock!=null) locFile.delete();
+				}
+			}
+			suffix++;
+			if(suffix>10000) { // because size limit counts here
+				throw new RuntimeException("Cannot create log file using .loc: "+logPath);
+			}
+			logPath=logPrePath+'_'+suffix+logExt;
+		}
+	}
+
+	/**
+	 * Opens the log file for appending (takes the stream opened in advance if any). Called when the .loc file lock
+	 * is already acquired
+	 * @param path
+	 * @throws IOException
+	 */
+	protected void openOutput(String path) throws IOException {
+		FileOutputStream fileStream=preopened;
+		preopened=null;
+		if(fileStream==null) fileStream=new FileOutputStream(path, true);
+		if(isChannelMode) {
+			openChannel(fileStream.getChannel());
+		}else logFileWriter = new BufferedWriter(new OutputStreamWriter(new CountingStream(fileStream, bytesWritten), charsetName));
+	}
+
+	private static final class CountingStream extends FilterOutputStream {
+		private final LongAdder count;
+
+		CountingStream(OutputStream out, LongAdder count) {
+			super(out);
+			this.count=count;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count.increment();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count.add(len);
+		}
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	public long getRotations() {
+		return rotations.sum();
+	}
+
+	/**
+	 * Sets the channel to write the file and prepares the output buffer and encoder (channel mode)
+	 * @param channel - channel positioned at the file end
+	 * @throws IOException
+	 */
+	protected void openChannel(FileChannel channel) throws IOException {
+		Charset charset=Charset.forName(charsetName);
+		synchronized(outLock) {
+			if(outBuf==null) outBuf=ByteBuffer.allocateDirect(OUT_BUFFER_SIZE);
+			encoder=charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+			if(charset.equals(StandardCharsets.ISO_8859_1)) asciiLimit=256;
+			else if(charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)) asciiLimit=128;
+			else asciiLimit=0;
+			logChannel=channel;
+			fileLength=channel.size();
+		}
+	}
+
 	@Override
 	public void flush() throws IOException {
+		if(rollTime!=0) {
+			long now=System.currentTimeMillis();
+			if(now>=rollTime) roll(now);
+			else if(now>=rollTime-NEXT_FILE_LOCK_MILLIS && nextLocked==null) lockNextFile();
+		}
+		if(isChannelMode) {
+			synchronized(outLock) {
+				if(logChannel==null) return;
+				if(outBuf.position()>0) writeOut();
+				if(maxLogFileSize<=0 || fileLength<maxLogFileSize) return;
+			}
+			rotations.increment();
+			reopen();
+			return;
+		}
 		Writer lf = logFileWriter;
 		if(lf!=null) {
 			lf.flush();
 			if(maxLogFileSize>0 &&new File(logPath).length()>=maxLogFileSize) {
+				rotations.increment();
 				reopen();
 			}
 		}
@@ -190,6 +711,7 @@ public class FileLogOut implements ILogOut {
 
 	@Override
 	public void close() {
+		releaseNextFile();
 		closeFile();
 	}
 
@@ -202,6 +724,24 @@ public class FileLogOut implements ILogOut {
 			if(value instanceof Number) maxLogFileSize=((Number) value).longValue();
 			else if(value!=null) maxLogFileSize=Long.parseLong(value.toString());
 			return true;
+		}else if(FILE_MODE.equals(name)) {
+			boolean isChannel=value!=null && FILE_MODE_CHANNEL.equalsIgnoreCase(value.toString());
+			if(isChannel!=isChannelMode) {
+				closeFile();
+				isChannelMode=isChannel;
+				openFile(logPathTempl, System.currentTimeMillis());
+			}
+			return true;
+		}else if(COMPRESS.equals(name) || MAX_TOTAL_SIZE.equals(name) || MAX_FILES.equals(name) || MAX_AGE_DAYS.equals(name)) {
+			if(value!=null) {
+				String s=value.toString();
+				if(COMPRESS.equals(name)) archiver.setCompress(Boolean.parseBoolean(s));
+				else if(MAX_TOTAL_SIZE.equals(name)) archiver.setMaxTotalSize(Long.parseLong(s));
+				else if(MAX_FILES.equals(name)) archiver.setMaxFiles(Integer.parseInt(s));
+				else archiver.setMaxAgeDays(Double.parseDouble(s));
+				archiver.submit(l, logPathTempl, logPath);
+			}
+			return true;
 		}
 		return false;
 	}
@@ -212,6 +752,20 @@ public class FileLogOut implements ILogOut {
 			return logPath;
 		}else if(MAX_FILE_SIZE.equals(name)) {
 			return String.valueOf(maxLogFileSize);
+		}else if(FILE_MODE.equals(name)) {
+			return isChannelMode?FILE_MODE_CHANNEL:FILE_MODE_WRITER;
+		}else if(COMPRESS.equals(name)) {
+			return String.valueOf(archiver.isCompress());
+		}else if(MAX_TOTAL_SIZE.equals(name)) {
+			return String.valueOf(archiver.getMaxTotalSize());
+		}else if(MAX_FILES.equals(name)) {
+			return String.valueOf(archiver.getMaxFiles());
+		}else if(MAX_AGE_DAYS.equals(name)) {
+			return String.valueOf(archiver.getMaxAgeDays());
+		}else if(BYTES_WRITTEN.equals(name)) {
+			return String.valueOf(getBytesWritten());
+		}else if(ROTATIONS.equals(name)) {
+			return String.valueOf(getRotations());
 		}
 		return null;
 	}
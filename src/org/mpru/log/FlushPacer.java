@@ -0,0 +1,83 @@
+package org.mpru.log;
+
+/**
+ * Flusher pause control of the adaptive wait strategy. The flusher reports the latency of each flushed batch
+ * (from the oldest message time to the moment the outputs are flushed, counted for every message of the batch),
+ * and once per window the pause is halved if the p99 latency exceeds the target or grown by 1/4 (not above
+ * the target) if p99 is below half of the target. Longer pause makes bigger batches (less writes).
+ */
+final class FlushPacer {
+
+	static final long MIN_PAUSE_NANOS=100*1000;
+	private static final long WINDOW_MILLIS=1000;
+	private static final int MIN_WINDOW_COUNT=100;
+	private static final int BUCKETS=64;
+
+	private long targetMillis;
+	private long bucketMillis;
+	private final long[] counts=new long[BUCKETS]; // the last bucket counts all the latencies above
+	private long windowCount;
+	private long windowEnd;
+	private volatile long pauseNanos;
+	private volatile long p99Millis=-1;
+
+	FlushPacer(long targetMillis) {
+		setTargetMillis(targetMillis);
+	}
+
+	synchronized void setTargetMillis(long targetMillis) {
+		this.targetMillis=Math.max(1, targetMillis);
+		bucketMillis=Math.max(1, this.targetMillis*4/BUCKETS);
+		pauseNanos=this.targetMillis*1000000/2;
+		resetWindow(System.currentTimeMillis());
+	}
+
+	long getTargetMillis() {
+		return targetMillis;
+	}
+
+	/**
+	 * @return current flusher pause
+	 */
+	long getPauseNanos() {
+		return pauseNanos;
+	}
+
+	/**
+	 * @return p99 latency of the last finished window, -1 if not measured yet
+	 */
+	long getP99Millis() {
+		return p99Millis;
+	}
+
+	/**
+	 * @param latencyMillis - time from the oldest message of the batch creation (or deferred print time) to the outputs flush
+	 * @param count - number of messages in the batch
+	 */
+	synchronized void record(long latencyMillis, int count) {
+		counts[(int) Math.min(BUCKETS-1, Math.max(0, latencyMillis)/bucketMillis)]+=count;
+		windowCount+=count;
+		long now=System.currentTimeMillis();
+		if(now<windowEnd || windowCount<MIN_WINDOW_COUNT) return;
+		long rank=windowCount-windowCount/100; // messages at or below p99
+		long n=0;
+		int i=0;
+		while(i<BUCKETS-1 && (n+=counts[i])<rank) i++;
+		long p99=(i+1)*bucketMillis;
+		p99Millis=p99;
+		long pause=pauseNanos;
+		if(p99>targetMillis) {
+			pause=Math.max(MIN_PAUSE_NANOS, pause/2);
+		}else if(p99*2<targetMillis) {
+			pause=Math.min(targetMillis*1000000, pause+pause/4);
+		}
+		pauseNanos=pause;
+		resetWindow(now);
+	}
+
+	private void resetWindow(long now) {
+		for(int i=0;i<BUCKETS;i++) counts[i]=0;
+		windowCount=0;
+		windowEnd=now+WINDOW_MILLIS;
+	}
+}
@@ -103,6 +103,19 @@ public interface ILog {
 	 */
 	boolean isLog(byte level);
 	
+	/**
+	 * Sets the sampling policy of the messages of the level and the more detailed levels (up to the level of the next sampler set),
+	 * for example setSampler(ILog.DEBUG, LogSampler.oneIn(10)) prints every 10th debug and trace message permitted by the log levels.
+	 * The child ILogs use the samplers of the parent if they have none. The messages are sampled out before
+	 * they are created (isLog() does not check the sampler).
+	 * The default implementation does nothing: the ILog implementations not supporting sampling print all the messages
+	 * permitted by the log levels
+	 * @param level
+	 * @param sampler - null to remove
+	 */
+	default void setSampler(byte level, LogSampler sampler) {
+	}
+
 	/**
 	 * The same as isLog(ILog.TRACE)
 	 * @return true if TRACE level is logged
@@ -228,6 +241,177 @@ public interface ILog {
 	 * @param args 
 	 */
 	void error(String txt, Throwable exception, Object...args);
+
+	/**
+	 * Logs the message with up to 3 arguments passed without boxing and varargs array (used by traceNum(), debugNum(),
+	 * infoNum() and so on). Nothing is allocated when the level is not logged.
+	 * See {@link #logDefer(int, String, byte, Object...)} for other parameters
+	 * @param deferMillis
+	 * @param txt
+	 * @param level
+	 * @param argKinds - Msg.ARG_* kind of argument i in bits 2*i, 2*i+1
+	 * @param arg0 - ARG_LONG value or Double.doubleToRawLongBits of ARG_DOUBLE value
+	 * @param arg1 - the same as arg0
+	 * @param arg2 - the same as arg0
+	 * @param argObj - the (only) ARG_OBJECT argument value
+	 * @return ICancel object (if deferMillis>0)
+	 */
+	default ICancel logPrimitive(int deferMillis, String txt, byte level, int argKinds, long arg0, long arg1, long arg2, Object argObj) {
+		if(!isLog(level)) return null;
+		return logDefer(deferMillis, txt, level, Msg.toArgs(argKinds, arg0, arg1, arg2, argObj));
+	}
+
+	/**
+	 * Logs the message without boxing the arguments. The same methods exist for each level
+	 * (traceNum, debugNum, moreInfoNum, infoNum, warnNum, errorNum): (long), (long, long), (long, long, long), (double),
+	 * (long, Object), (long, long, Object). They have their own names, so that boxed arguments (which may be null) are
+	 * still logged by trace(), debug() and so on. Note that char and float arguments are widened by the compiler:
+	 * char is printed as a number, float as double.
+	 * See {@link #logPrimitive(int, String, byte, int, long, long, long, Object)}
+	 */
+	default void traceNum(String txt, long arg0) {
+		logPrimitive(0, txt, ILog.TRACE, Msg.ARG_LONG, arg0, 0, 0, null);
+	}
+
+	default void traceNum(String txt, long arg0, long arg1) {
+		logPrimitive(0, txt, ILog.TRACE, Msg.ARG_LONG|Msg.ARG_LONG<<2, arg0, arg1, 0, null);
+	}
+
+	default void traceNum(String txt, long arg0, long arg1, long arg2) {
+		logPrimitive(0, txt, ILog.TRACE, Msg.ARG_LONG|Msg.ARG_LONG<<2|Msg.ARG_LONG<<4, arg0, arg1, arg2, null);
+	}
+
+	default void traceNum(String txt, double arg0) {
+		logPrimitive(0, txt, ILog.TRACE, Msg.ARG_DOUBLE, Double.doubleToRawLongBits(arg0), 0, 0, null);
+	}
+
+	default void traceNum(String txt, long arg0, Object arg1) {
+		logPrimitive(0, txt, ILog.TRACE, Msg.ARG_LONG|Msg.ARG_OBJECT<<2, arg0, 0, 0, arg1);
+	}
+
+	default void traceNum(String txt, long arg0, long arg1, Object arg2) {
+		logPrimitive(0, txt, ILog.TRACE, Msg.ARG_LONG|Msg.ARG_LONG<<2|Msg.ARG_OBJECT<<4, arg0, arg1, 0, arg2);
+	}
+
+	default void debugNum(String txt, long arg0) {
+		logPrimitive(0, txt, ILog.DEBUG, Msg.ARG_LONG, arg0, 0, 0, null);
+	}
+
+	default void debugNum(String txt, long arg0, long arg1) {
+		logPrimitive(0, txt, ILog.DEBUG, Msg.ARG_LONG|Msg.ARG_LONG<<2, arg0, arg1, 0, null);
+	}
+
+	default void debugNum(String txt, long arg0, long arg1, long arg2) {
+		logPrimitive(0, txt, ILog.DEBUG, Msg.ARG_LONG|Msg.ARG_LONG<<2|Msg.ARG_LONG<<4, arg0, arg1, arg2, null);
+	}
+
+	default void debugNum(String txt, double arg0) {
+		logPrimitive(0, txt, ILog.DEBUG, Msg.ARG_DOUBLE, Double.doubleToRawLongBits(arg0), 0, 0, null);
+	}
+
+	default void debugNum(String txt, long arg0, Object arg1) {
+		logPrimitive(0, txt, ILog.DEBUG, Msg.ARG_LONG|Msg.ARG_OBJECT<<2, arg0, 0, 0, arg1);
+	}
+
+	default void debugNum(String txt, long arg0, long arg1, Object arg2) {
+		logPrimitive(0, txt, ILog.DEBUG, Msg.ARG_LONG|Msg.ARG_LONG<<2|Msg.ARG_OBJECT<<4, arg0, arg1, 0, arg2);
+	}
+
+	default void moreInfoNum(String txt, long arg0) {
+		logPrimitive(0, txt, ILog.MOREINFO, Msg.ARG_LONG, arg0, 0, 0, null);
+	}
+
+	default void moreInfoNum(String txt, long arg0, long arg1) {
+		logPrimitive(0, txt, ILog.MOREINFO, Msg.ARG_LONG|Msg.ARG_LONG<<2, arg0, arg1, 0, null);
+	}
+
+	default void moreInfoNum(String txt, long arg0, long arg1, long arg2) {
+		logPrimitive(0, txt, ILog.MOREINFO, Msg.ARG_LONG|Msg.ARG_LONG<<2|Msg.ARG_LONG<<4, arg0, arg1, arg2, null);
+	}
+
+	default void moreInfoNum(String txt, double arg0) {
+		logPrimitive(0, txt, ILog.MOREINFO, Msg.ARG_DOUBLE, Double.doubleToRawLongBits(arg0), 0, 0, null);
+	}
+
+	default void moreInfoNum(String txt, long arg0, Object arg1) {
+		logPrimitive(0, txt, ILog.MOREINFO, Msg.ARG_LONG|Msg.ARG_OBJECT<<2, arg0, 0, 0, arg1);
+	}
+
+	default void moreInfoNum(String txt, long arg0, long arg1, Object arg2) {
+		logPrimitive(0, txt, ILog.MOREINFO, Msg.ARG_LONG|Msg.ARG_LONG<<2|Msg.ARG_OBJECT<<4, arg0, arg1, 0, arg2);
+	}
+
+	default void infoNum(String txt, long arg0) {
+		logPrimitive(0, txt, ILog.INFO, Msg.ARG_LONG, arg0, 0, 0, null);
+	}
+
+	default void infoNum(String txt, long arg0, long arg1) {
+		logPrimitive(0, txt, ILog.INFO, Msg.ARG_LONG|Msg.ARG_LONG<<2, arg0, arg1, 0, null);
+	}
+
+	default void infoNum(String txt, long arg0, long arg1, long arg2) {
+		logPrimitive(0, txt, ILog.INFO, Msg.ARG_LONG|Msg.ARG_LONG<<2|Msg.ARG_LONG<<4, arg0, arg1, arg2, null);
+	}
+
+	default void infoNum(String txt, double arg0) {
+		logPrimitive(0, txt, ILog.INFO, Msg.ARG_DOUBLE, Double.doubleToRawLongBits(arg0), 0, 0, null);
+	}
+
+	default void infoNum(String txt, long arg0, Object arg1) {
+		logPrimitive(0, txt, ILog.INFO, Msg.ARG_LONG|Msg.ARG_OBJECT<<2, arg0, 0, 0, arg1);
+	}
+
+	default void infoNum(String txt, long arg0, long arg1, Object arg2) {
+		logPrimitive(0, txt, ILog.INFO, Msg.ARG_LONG|Msg.ARG_LONG<<2|Msg.ARG_OBJECT<<4, arg0, arg1, 0, arg2);
+	}
+
+	default void warnNum(String txt, long arg0) {
+		logPrimitive(0, txt, ILog.WARN, Msg.ARG_LONG, arg0, 0, 0, null);
+	}
+
+	default void warnNum(String txt, long arg0, long arg1) {
+		logPrimitive(0, txt, ILog.WARN, Msg.ARG_LONG|Msg.ARG_LONG<<2, arg0, arg1, 0, null);
+	}
+
+	default void warnNum(String txt, long arg0, long arg1, long arg2) {
+		logPrimitive(0, txt, ILog.WARN, Msg.ARG_LONG|Msg.ARG_LONG<<2|Msg.ARG_LONG<<4, arg0, arg1, arg2, null);
+	}
+
+	default void warnNum(String txt, double arg0) {
+		logPrimitive(0, txt, ILog.WARN, Msg.ARG_DOUBLE, Double.doubleToRawLongBits(arg0), 0, 0, null);
+	}
+
+	default void warnNum(String txt, long arg0, Object arg1) {
+		logPrimitive(0, txt, ILog.WARN, Msg.ARG_LONG|Msg.ARG_OBJECT<<2, arg0, 0, 0, arg1);
+	}
+
+	default void warnNum(String txt, long arg0, long arg1, Object arg2) {
+		logPrimitive(0, txt, ILog.WARN, Msg.ARG_LONG|Msg.ARG_LONG<<2|Msg.ARG_OBJECT<<4, arg0, arg1, 0, arg2);
+	}
+
+	default void errorNum(String txt, long arg0) {
+		logPrimitive(0, txt, ILog.ERROR, Msg.ARG_LONG, arg0, 0, 0, null);
+	}
+
+	default void errorNum(String txt, long arg0, long arg1) {
+		logPrimitive(0, txt, ILog.ERROR, Msg.ARG_LONG|Msg.ARG_LONG<<2, arg0, arg1, 0, null);
+	}
+
+	default void errorNum(String txt, long arg0, long arg1, long arg2) {
+		logPrimitive(0, txt, ILog.ERROR, Msg.ARG_LONG|Msg.ARG_LONG<<2|Msg.ARG_LONG<<4, arg0, arg1, arg2, null);
+	}
+
+	default void errorNum(String txt, double arg0) {
+		logPrimitive(0, txt, ILog.ERROR, Msg.ARG_DOUBLE, Double.doubleToRawLongBits(arg0), 0, 0, null);
+	}
+
+	default void errorNum(String txt, long arg0, Object arg1) {
+		logPrimitive(0, txt, ILog.ERROR, Msg.ARG_LONG|Msg.ARG_OBJECT<<2, arg0, 0, 0, arg1);
+	}
+
+	default void errorNum(String txt, long arg0, long arg1, Object arg2) {
+		logPrimitive(0, txt, ILog.ERROR, Msg.ARG_LONG|Msg.ARG_LONG<<2|Msg.ARG_OBJECT<<4, arg0, arg1, 0, arg2);
+	}
 	
 	void close();
 }
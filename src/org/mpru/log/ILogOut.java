@@ -5,6 +5,20 @@ import java.io.IOException;
 public interface ILogOut {
 
 	void print(Msg msg) throws IOException;
+
+	/**
+	 * Prints the messages drained by the flusher in one call
+	 * @param msgs
+	 * @param from - index of the first message
+	 * @param to - index after the last message
+	 * @throws IOException
+	 */
+	default void printBatch(Msg[] msgs, int from, int to) throws IOException {
+		for(int i=from;i<to;i++) {
+			print(msgs[i]);
+		}
+	}
+
 	void flush() throws IOException;
 	void close();
 	
@@ -41,6 +41,21 @@ public interface ILogger {
 	 * @return IMsg object used for cancelling (if deferMillis is used)
 	 */
 	ICancel log(String prefix, String text, byte level, Object[] args, boolean isScreen, boolean isFile, int deferMillis);
+
+	/**
+	 * Logs text with up to 3 arguments passed without boxing. This method should not be called directly, but via ILog class.
+	 * See {@link #log(String, String, byte, Object[], boolean, boolean, int)} for other parameters
+	 * @param argKinds - Msg.ARG_* kind of argument i in bits 2*i, 2*i+1
+	 * @param arg0 - ARG_LONG value or Double.doubleToRawLongBits of ARG_DOUBLE value
+	 * @param arg1 - the same as arg0
+	 * @param arg2 - the same as arg0
+	 * @param argObj - the (only) ARG_OBJECT argument value
+	 * @return IMsg object used for cancelling (if deferMillis is used)
+	 */
+	default ICancel log(String prefix, String text, byte level, int argKinds, long arg0, long arg1, long arg2, Object argObj,
+			boolean isScreen, boolean isFile, int deferMillis) {
+		return log(prefix, text, level, Msg.toArgs(argKinds, arg0, arg1, arg2, argObj), isScreen, isFile, deferMillis);
+	}
 	
 	/**
 	 * Cancels deferred message
@@ -0,0 +1,200 @@
+package org.mpru.log;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * File output writing one JSON object per line (JSON lines), so the log can be parsed without regular expressions:
+ * <pre>{"time":"2024-05-17T10:15:30.123+03:00","level":"INFO","prefix":"db","pattern":"user {0} took {1} ms",
+ *"msg":"user bob took 12 ms","args":["bob",12]}</pre>
+ * prefix, pattern and args are omitted when the message has none. Numbers and booleans are written as JSON numbers
+ * and booleans (NaN and infinity as strings), null as null, other arguments as the text MsgFormatter makes.
+ * The arguments which can be changed after log() call are written as their text made by log(),
+ * LazyArg and Supplier arguments are written as their values (calculated once, when the message text is made).
+ * The message text does not include the line separator, the exception stack trace printed with the message is in msg.
+ * Properties, file rotation and .loc locking are the same as FileLogOut has. To use it instead of FileLogOut
+ * set system property org.mpru.log.FileOut=org.mpru.log.JsonLogOut
+ */
+public class JsonLogOut extends FileLogOut {
+
+	/**
+	 * Max capacity of the reused buffers kept after writing a huge message
+	 */
+	protected static final int MAX_KEPT_BUFFER=64*1024;
+
+	private ILogger logger;
+	private MsgFormatter formatter;
+	private StringBuilder line=new StringBuilder(512);
+	private StringBuilder text=new StringBuilder(256);
+
+	public JsonLogOut() {
+		isChannelMode=true;
+	}
+
+	/**
+	 * Makes the logger keep the arguments of the file messages (see Logger.setKeepFileArgs)
+	 */
+	@Override
+	public void setILogger(ILogger logger) {
+		super.setILogger(logger);
+		this.logger=logger;
+		if(logger instanceof Logger) {
+			formatter=((Logger) logger).getMsgFormatter();
+			((Logger) logger).setKeepFileArgs(true);
+		}else {
+			formatter=new MsgFormatter();
+			formatter.setKeepArgs(true);
+		}
+	}
+
+	@Override
+	protected void printToChannel(Msg m) throws IOException {
+		setFileHeaderPrinted(true); // no text header in JSON lines
+		StringBuilder sb=line;
+		sb.setLength(0);
+		sb.append("{\"time\":\"");
+		appendTime(m.time, sb);
+		sb.append("\",\"level\":");
+		appendString(logger.getLevelName(m.level), sb);
+		if(m.prefix!=null) {
+			sb.append(",\"prefix\":");
+			appendString(m.prefix, sb);
+		}
+		String pattern=m.pattern;
+		if(pattern!=null && pattern.length()>0) {
+			sb.append(",\"pattern\":");
+			appendString(pattern, sb);
+		}
+		StringBuilder t=text;
+		t.setLength(0);
+		formatter.appendText(m, t, ILogger.TEXT);
+		int len=t.length();
+		while(len>0 && (t.charAt(len-1)=='\n' || t.charAt(len-1)=='\r')) len--;
+		t.setLength(len);
+		sb.append(",\"msg\":");
+		appendString(t, sb);
+		int argCount=m.hasArgs()?m.getArgCount():0;
+		if(argCount>0) {
+			sb.append(",\"args\":[");
+			for(int i=0;i<argCount;i++) {
+				if(i>0) sb.append(',');
+				appendArg(m, i, sb);
+			}
+			sb.append(']');
+		}
+		sb.append('}').append(MsgFormatter.EOL);
+		writeText(sb);
+		if(sb.capacity()>MAX_KEPT_BUFFER) line=new StringBuilder(512);
+		if(t.capacity()>MAX_KEPT_BUFFER) text=new StringBuilder(256);
+	}
+
+	/**
+	 * Appends local time as yyyy-MM-ddTHH:mm:ss.SSS+hh:mm (the time zone of the logger formatter)
+	 * @param time
+	 * @param sb
+	 */
+	protected void appendTime(long time, StringBuilder sb) {
+		TimeRenderer tr=formatter.timeRenderer;
+		tr.appendDate(time, sb, '-');
+		sb.append('T');
+		tr.appendTime(time, sb, true);
+		int offset=tr.getOffset(time)/60000;
+		if(offset==0) {
+			sb.append('Z');
+			return;
+		}
+		sb.append(offset<0?'-':'+');
+		offset=Math.abs(offset);
+		sb.append((char) ('0'+offset/600)).append((char) ('0'+offset/60%10)).append(':');
+		sb.append((char) ('0'+offset%60/10)).append((char) ('0'+offset%10));
+	}
+
+	private void appendArg(Msg m, int idx, StringBuilder sb) {
+		if(m.args==null) {
+			long value=idx==0?m.arg0:idx==1?m.arg1:m.arg2;
+			switch((m.argKinds>>>(idx*2))&3) {
+				case Msg.ARG_LONG:
+					sb.append(value);
+					return;
+				case Msg.ARG_DOUBLE:
+					appendDouble(Double.longBitsToDouble(value), sb);
+					return;
+				case Msg.ARG_OBJECT:
+					appendValue(m.argObj, sb);
+					return;
+				default:
+					sb.append("null");
+					return;
+			}
+		}
+		appendValue(m.args[idx], sb);
+	}
+
+	private void appendValue(Object value, StringBuilder sb) {
+		if(value==null || value instanceof LazyArg || value instanceof Supplier) {
+			sb.append("null");
+		}else if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			sb.append(((Number) value).longValue());
+		}else if(value instanceof Double || value instanceof Float) {
+			appendDouble(((Number) value).doubleValue(), sb);
+		}else if(value instanceof Boolean) {
+			sb.append(((Boolean) value).booleanValue());
+		}else if(value instanceof String) {
+			appendString((String) value, sb);
+		}else {
+			StringBuilder t=text;
+			t.setLength(0);
+			formatter.appendParameter(value, t);
+			appendString(t, sb);
+		}
+	}
+
+	private static void appendDouble(double v, StringBuilder sb) {
+		if(Double.isNaN(v) || Double.isInfinite(v)) sb.append('"').append(v).append('"');
+		else sb.append(v);
+	}
+
+	/**
+	 * Appends JSON string: quoted, with '"', '\' and control characters escaped
+	 * @param s
+	 * @param sb
+	 */
+	static void appendString(CharSequence s, StringBuilder sb) {
+		sb.append('"');
+		final int len=s.length();
+		int from=0;
+		for(int i=0;i<len;i++) {
+			char c=s.charAt(i);
+			if(c>'"' && c!='\\' || c==' ' || c=='!') continue;
+			sb.append(s, from, i);
+			from=i+1;
+			switch(c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					sb.append("\\u00").append((char) ('0'+(c>>4))).append("0123456789abcdef".charAt(c&15));
+			}
+		}
+		sb.append(s, from, len);
+		sb.append('"');
+	}
+
+	@Override
+	public boolean setProperty(String name, Object value) {
+		if(FILE_MODE.equals(name)) {
+			return false; // always channel mode
+		}
+		return super.setProperty(name, value);
+	}
+
+	@Override
+	public String getProperty(String name) {
+		if(FILE_MODE.equals(name)) {
+			return "json";
+		}
+		return super.getProperty(name);
+	}
+}
@@ -0,0 +1,170 @@
+package org.mpru.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of durations (nanos): each power of 2 range is split into 8 linear buckets,
+ * so a percentile is reported with not more than 12.5% error. The counters are striped by thread,
+ * so the threads recording concurrently do not contend on the same counter.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BITS=3;
+	private static final int SUB=1<<SUB_BITS;
+	static final int BUCKETS=(64-SUB_BITS)*SUB;
+	private static final int STRIPES=Math.min(16, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()-1))<<1);
+
+	private final AtomicLongArray counts=new AtomicLongArray(STRIPES*BUCKETS);
+	private final AtomicLong max=new AtomicLong();
+
+	/**
+	 * @param nanos - duration, negative is counted as 0
+	 */
+	public void record(long nanos) {
+		if(nanos<0) nanos=0;
+		int stripe=(int) ((Thread.currentThread().getId()*0x9E3779B97F4A7C15L)>>>32)&(STRIPES-1);
+		counts.getAndIncrement(stripe*BUCKETS+getBucket(nanos));
+		if(nanos>max.get()) max.accumulateAndGet(nanos, Math::max);
+	}
+
+	static int getBucket(long v) {
+		if(v<SUB) return (int) v;
+		int shift=63-Long.numberOfLeadingZeros(v)-SUB_BITS;
+		return (shift+1)*SUB+(int) ((v>>>shift)&(SUB-1));
+	}
+
+	/**
+	 * @param bucket
+	 * @return the max value counted in the bucket
+	 */
+	static long getBucketMax(int bucket) {
+		if(bucket<SUB) return bucket;
+		int shift=bucket/SUB-1;
+		return ((long) (SUB+bucket%SUB+1)<<shift)-1;
+	}
+
+	/**
+	 * @return current counts (the recording threads are not stopped, so the counts of different buckets
+	 * can be taken at slightly different moments)
+	 */
+	public Snapshot snapshot() {
+		long[] sum=new long[BUCKETS];
+		for(int s=0;s<STRIPES;s++) {
+			for(int i=0;i<BUCKETS;i++) {
+				sum[i]+=counts.get(s*BUCKETS+i);
+			}
+		}
+		return new Snapshot(sum, max.get());
+	}
+
+	public static final class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long max;
+
+		private Snapshot(long[] counts, long max) {
+			this.counts=counts;
+			long n=0;
+			for(long c: counts) n+=c;
+			this.count=n;
+			this.max=max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @param percentile - 0..100
+		 * @return the value (upper bound of its bucket) not exceeded by the percentile of the recorded values, 0 if no values
+		 */
+		public long getPercentile(double percentile) {
+			if(count==0) return 0;
+			long rank=(long) Math.ceil(count*Math.min(100, percentile)/100);
+			long n=0;
+			for(int i=0;i<BUCKETS;i++) {
+				n+=counts[i];
+				if(n>=Math.max(1, rank)) return Math.min(getBucketMax(i), max);
+			}
+			return max;
+		}
+
+		/**
+		 * @return max value recorded (exact for the whole histogram, upper bound of the bucket for the difference)
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * @param prev - earlier snapshot of the same histogram
+		 * @return the values recorded since the earlier snapshot
+		 */
+		public Snapshot minus(Snapshot prev) {
+			long[] diff=new long[BUCKETS];
+			int last=-1;
+			for(int i=0;i<BUCKETS;i++) {
+				diff[i]=counts[i]-prev.counts[i];
+				if(diff[i]>0) last=i;
+			}
+			return new Snapshot(diff, last<0?0:Math.min(getBucketMax(last), max));
+		}
+
+		/**
+		 * Appends "n=... p50=... p99=... p99.9=... max=..."
+		 * @param sb
+		 */
+		public void appendSummary(StringBuilder sb) {
+			sb.append("n=").append(count);
+			sb.append(" p50=");
+			appendDuration(sb, getPercentile(50));
+			sb.append(" p99=");
+			appendDuration(sb, getPercentile(99));
+			sb.append(" p99.9=");
+			appendDuration(sb, getPercentile(99.9));
+			sb.append(" max=");
+			appendDuration(sb, max);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb=new StringBuilder(80);
+			appendSummary(sb);
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Appends the duration with 2-3 significant digits: 850ns, 12.3us, 4.56ms, 1.20s
+	 * @param sb
+	 * @param nanos
+	 */
+	static void appendDuration(StringBuilder sb, long nanos) {
+		if(nanos<1000) {
+			sb.append(nanos).append("ns");
+			return;
+		}
+		// rounded to 3 digits before the unit is chosen, so that 999999ns is 1.00ms (not 1000us)
+		long step=1;
+		while(nanos/step>=1000) step*=10;
+		long rounded=(nanos+step/2)/step*step;
+		long unitNanos;
+		String unit;
+		if(rounded<1000000) {
+			unitNanos=1000;
+			unit="us";
+		}else if(rounded<1000000000) {
+			unitNanos=1000000;
+			unit="ms";
+		}else {
+			unitNanos=1000000000;
+			unit="s";
+		}
+		long hundredths=rounded/(unitNanos/100);
+		if(hundredths<1000) sb.append(hundredths/100).append('.').append(hundredths/10%10).append(hundredths%10);
+		else if(hundredths<10000) sb.append(hundredths/100).append('.').append(hundredths/10%10);
+		else sb.append(hundredths/100);
+		sb.append(unit);
+	}
+}
@@ -0,0 +1,52 @@
+package org.mpru.log;
+
+/**
+ * Message argument calculated only if the message is logged (to the console and/or to the file).
+ * The value is calculated at most once. By default it is calculated in the log() calling thread,
+ * use {@link #deferred(LazyArg)} to calculate it later in the logger thread
+ * (when the value does not depend on the state changed after log() call).
+ * The exception thrown is caught and printed instead of the value.
+ * java.util.function.Supplier arguments are processed the same way as LazyArg.
+ * <pre><code>log.debug("state: {0}", LazyArg.lazy(() -&gt; buildStateDump()));
+ *log.debug("config: {0}", LazyArg.deferred(() -&gt; immutableConfig.toString()));</code></pre>
+ */
+@FunctionalInterface
+public interface LazyArg {
+
+	Object get() throws Exception;
+
+	/**
+	 * @return true if the value can be calculated in the logger thread
+	 */
+	default boolean isDeferrable() {
+		return false;
+	}
+
+	/**
+	 * Just returns the argument (to make LazyArg from lambda expression passed as Object... argument)
+	 * @param arg
+	 * @return arg
+	 */
+	static LazyArg lazy(LazyArg arg) {
+		return arg;
+	}
+
+	/**
+	 * Makes the argument calculated in the logger thread
+	 * @param arg
+	 * @return deferrable LazyArg
+	 */
+	static LazyArg deferred(LazyArg arg) {
+		return new LazyArg() {
+			@Override
+			public Object get() throws Exception {
+				return arg.get();
+			}
+
+			@Override
+			public boolean isDeferrable() {
+				return true;
+			}
+		};
+	}
+}
@@ -2,6 +2,7 @@ package org.mpru.log;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Log implements ILog {
 
@@ -12,6 +13,16 @@ public class Log implements ILog {
 	private boolean isFileUsesSameLevel;
 	private byte level=ILog.INFO;
 
+	// incremented by any level change of any Log, makes the cached effective levels of all the Logs invalid
+	private static final AtomicLong LEVELS_VERSION=new AtomicLong();
+	// effective (max of this and parents) levels cached at LEVELS_VERSION: version<<16 | fileLevel<<8 | level
+	private volatile long effLevels=-1;
+	// samplers set by setSampler by the lowest level and by the message level (null if none)
+	private LogSampler[] samplers;
+	private LogSampler[] levelSamplers;
+	// samplers by the message level of this Log or of the nearest parent or of the prefix, updated with effLevels
+	private volatile LogSampler[] effSamplers;
+
 	@SuppressWarnings("unchecked")
 	protected static <T> T createInstance(String classPropertyName, Class<T> cl){
 		String className=System.getProperty(classPropertyName);
@@ -41,7 +52,9 @@ public class Log implements ILog {
 			logger=createInstance(Logger.LOGGER_CLASS_PROPERTY, ILogger.class);
 			if(logger==null) logger=new Logger(); // cannot store default, because on TZ change it will not change its already set formatters
 		}
-		return new Log(logger);
+		Log log=new Log(logger);
+		log.addAsRoot();
+		return log;
 	}
 
 	Log(ILogger logger) {
@@ -60,10 +73,19 @@ public class Log implements ILog {
 			log.parent=parent;
 			log.fileLevel=fileLevel;
 			log.level=level;
+			synchronized(this) {
+				log.samplers=samplers;
+				log.levelSamplers=levelSamplers;
+			}
+			if(parent==null) log.addAsRoot();
 		}
 		return log;
 	}
 
+	private void addAsRoot() {
+		if(l instanceof Logger) ((Logger) l).addRootLog(this);
+	}
+
 	@Override
 	public ILog getParent() {
 		return parent;
@@ -72,20 +94,83 @@ public class Log implements ILog {
 	@Override
 	public void setPrefix(String prefix) {
 		this.prefix=prefix;
+		effLevels=-1; // the prefix samplers of this Log can be changed
 	}
 
 	@Override
 	public boolean isLog(byte level) {
-		if(level<=this.level || level<=fileLevel) {
-			return true;
+		long e=getEffectiveLevels();
+		return level<=(byte) e || level<=(byte) (e>>8);
+	}
+
+	/**
+	 * @return max of the screen levels (low byte) and max of the file levels (2nd byte) of this Log and its parents
+	 */
+	private long getEffectiveLevels() {
+		long e=effLevels;
+		if(e>>>16==LEVELS_VERSION.get()) return e;
+		return updateEffectiveLevels();
+	}
+
+	private long updateEffectiveLevels() {
+		long version=LEVELS_VERSION.get();
+		byte level=this.level;
+		byte fileLevel=this.fileLevel;
+		boolean isCacheable=true;
+		LogSampler[] s=getLevelSamplers();
+		for(ILog c=parent;c!=null;c=c.getParent()) {
+			// the level changes of other ILog implementations are not tracked
+			if(!(c instanceof Log)) isCacheable=false;
+			else if(s==null) s=((Log) c).getLevelSamplers();
+			if(c.getLevel()>level) level=c.getLevel();
+			if(c.getFileLevel()>fileLevel) fileLevel=c.getFileLevel();
 		}
-		return parent==null?false:parent.isLog(level);
+		String prefix=this.prefix;
+		if(s==null && prefix!=null && l instanceof Logger) s=((Logger) l).getLevelSamplers(prefix);
+		effSamplers=s;
+		long e=version<<16 | (fileLevel&0xff)<<8 | (level&0xff);
+		if(isCacheable) effLevels=e;
+		return e;
+	}
+
+	/**
+	 * Makes the cached effective levels and samplers of all the Logs invalid
+	 */
+	static void invalidateLevels() {
+		LEVELS_VERSION.incrementAndGet();
+	}
+
+	private synchronized LogSampler[] getLevelSamplers() {
+		return levelSamplers;
+	}
+
+	@Override
+	public void setSampler(byte level, LogSampler sampler) {
+		synchronized(this) {
+			samplers=LogSampler.set(samplers, level, sampler);
+			levelSamplers=LogSampler.byLevel(samplers);
+		}
+		LEVELS_VERSION.incrementAndGet();
+	}
+
+	/**
+	 * @param level
+	 * @return true if the message is not printed by the sampler of the level (counted by the sampler and the Logger)
+	 */
+	private boolean isSampledOut(byte level) {
+		LogSampler[] s=effSamplers;
+		if(s==null || level<0 || level>=s.length) return false;
+		LogSampler sampler=s[level];
+		if(sampler==null || sampler.sample(level)) return false;
+		if(l instanceof Logger) ((Logger) l).countSampledOut(level);
+		return true;
 	}
 
 	@Override
 	public void setLevel(byte level) {
 		this.level=level;
 		if(isFileUsesSameLevel || level>fileLevel) fileLevel=level;
+		LEVELS_VERSION.incrementAndGet();
 	}
 
 	@Override
@@ -93,6 +178,7 @@ public class Log implements ILog {
 		isFileUsesSameLevel=level==ILog.USE_SAME_LEVEL;
 		if(isFileUsesSameLevel) fileLevel=this.level;
 		else fileLevel=level;
+		LEVELS_VERSION.incrementAndGet();
 	}
 
 	@Override
@@ -133,19 +219,24 @@ public class Log implements ILog {
 
 	@Override
 	public ICancel logDefer(int deferMillis, String txt, byte level, Object...args) {
-		boolean isScreen=level<=this.level;
-		boolean isFile=level<=fileLevel;
-		if(parent!=null) {
-			ILog c=getParent();
-			do {
-				if(!isScreen) isScreen=level<=c.getLevel();
-				if(!isFile) isFile=level<=c.getFileLevel();
-				c=c.getParent();
-			}while(c!=null);
-		}
+		long e=getEffectiveLevels();
+		boolean isScreen=level<=(byte) e;
+		boolean isFile=level<=(byte) (e>>8);
+		if(!isScreen && !isFile) return null;
+		if(isSampledOut(level)) return null;
 		return l.log(prefix, txt, level, args, isScreen, isFile, deferMillis);
 	}
 
+	@Override
+	public ICancel logPrimitive(int deferMillis, String txt, byte level, int argKinds, long arg0, long arg1, long arg2, Object argObj) {
+		long e=getEffectiveLevels();
+		boolean isScreen=level<=(byte) e;
+		boolean isFile=level<=(byte) (e>>8);
+		if(!isScreen && !isFile) return null;
+		if(isSampledOut(level)) return null;
+		return l.log(prefix, txt, level, argKinds, arg0, arg1, arg2, argObj, isScreen, isFile, deferMillis);
+	}
+
 	@Override
 	public void log(String txt, byte level, Object...args) {
 		logDefer(0, txt, level, args);
@@ -0,0 +1,317 @@
+package org.mpru.log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses (gzip) finished log files and deletes old ones by total size, file count and age.
+ * Works in the low priority "Log Archiver" daemon thread shared by all file outputs, so the file rotation
+ * in the flusher thread only queues the work. A log file is processed only if its .loc lock is not held
+ * (by this or another process), the lock is held while the file is compressed or deleted.
+ * Compressed file is written as name.log.gz.tmp and renamed to name.log.gz (or appended to the existing one
+ * as the next gzip member), then the log file is deleted.
+ */
+final class LogArchiver {
+
+	static final String GZ_EXT=".gz";
+	static final String TMP_EXT=".tmp";
+	private static final int BUF_SIZE=64*1024;
+	private static final long DAY_MILLIS=24*3600*1000;
+
+	private static final ThreadPoolExecutor EXECUTOR=createExecutor();
+
+	private volatile ILogger l;
+	private final AtomicBoolean isQueued=new AtomicBoolean();
+	private volatile String pathTempl;
+	private volatile String currentPath;
+
+	private volatile boolean isCompress;
+	private volatile long maxTotalSize;
+	private volatile int maxFiles;
+	private volatile long maxAgeMillis;
+
+	private static ThreadPoolExecutor createExecutor() {
+		ThreadPoolExecutor executor=new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+			Thread t=new Thread(r, "Log Archiver");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	void setCompress(boolean isCompress) {
+		this.isCompress=isCompress;
+	}
+
+	boolean isCompress() {
+		return isCompress;
+	}
+
+	/**
+	 * @param maxTotalSize - max total size of the log files (bytes), <=0 - unlimited
+	 */
+	void setMaxTotalSize(long maxTotalSize) {
+		this.maxTotalSize=maxTotalSize;
+	}
+
+	long getMaxTotalSize() {
+		return maxTotalSize;
+	}
+
+	/**
+	 * @param maxFiles - max number of the log files including the current one, <=0 - unlimited
+	 */
+	void setMaxFiles(int maxFiles) {
+		this.maxFiles=maxFiles;
+	}
+
+	int getMaxFiles() {
+		return maxFiles;
+	}
+
+	/**
+	 * @param maxAgeDays - files not modified this number of days are deleted, <=0 - unlimited
+	 */
+	void setMaxAgeDays(double maxAgeDays) {
+		this.maxAgeMillis=(long) (maxAgeDays*DAY_MILLIS);
+	}
+
+	double getMaxAgeDays() {
+		return (double) maxAgeMillis/DAY_MILLIS;
+	}
+
+	boolean isEnabled() {
+		return isCompress || maxTotalSize>0 || maxFiles>0 || maxAgeMillis>0;
+	}
+
+	/**
+	 * Queues processing of the log files (does not wait). Repeated calls are merged while the work is queued
+	 * @param l
+	 * @param pathTempl - log path template (as set by ILog.LOG_PATH)
+	 * @param currentPath - the file opened for logging now
+	 */
+	void submit(ILogger l, String pathTempl, String currentPath) {
+		if(pathTempl==null || currentPath==null || !isEnabled()) return;
+		this.l=l;
+		this.pathTempl=pathTempl;
+		this.currentPath=currentPath;
+		if(isQueued.compareAndSet(false, true)) {
+			EXECUTOR.execute(this::process);
+		}
+	}
+
+	private void process() {
+		isQueued.set(false);
+		try {
+			File current=new File(currentPath).getAbsoluteFile();
+			File dir=current.getParentFile();
+			Pattern pattern=getFilePattern(new File(pathTempl).getName());
+			String[] names=dir==null?null:dir.list();
+			if(names==null) return;
+			ArrayList<File> files=new ArrayList<>();
+			for(String name: names) {
+				Matcher matcher=pattern.matcher(name);
+				if(!matcher.matches()) continue;
+				File f=new File(dir, name);
+				if(f.equals(current)) {
+					files.add(f);
+				}else if(matcher.group(2)!=null) {
+					deleteTemp(f);
+				}else if(isCompress && matcher.group(1)==null) {
+					File gz=compress(f);
+					if(gz!=null) files.add(gz);
+					else if(f.exists()) files.add(f);
+				}else files.add(f);
+			}
+			applyRetention(files, current);
+		}catch(Exception e) {
+			l.reportInternalError("log archiver", e);
+		}
+	}
+
+	/**
+	 * @param templName - file name from the path template
+	 * @return pattern of the file names made from the template: group 1 - ".gz", group 2 - ".tmp"
+	 */
+	static Pattern getFilePattern(String templName) {
+		if(templName.lastIndexOf('.')<0) templName=templName+".log";
+		int ps=templName.lastIndexOf('.');
+		String ext=templName.substring(ps);
+		StringBuilder sb=new StringBuilder();
+		String[] parts=templName.substring(0, ps).split("(?i)\\$\\(filedate\\)", -1);
+		for(int i=0;i<parts.length;i++) {
+			if(i>0) sb.append("\\d{4}_\\d{2}_\\d{2}");
+			if(parts[i].length()>0) sb.append(Pattern.quote(parts[i]));
+		}
+		sb.append("(?:_\\d+)?").append(Pattern.quote(ext)).append("(\\.gz)?(\\.tmp)?");
+		return Pattern.compile(sb.toString());
+	}
+
+	/**
+	 * @param logFile
+	 * @return .loc file used by FileLogOut to lock the log file
+	 */
+	static File getLocFile(File logFile) {
+		String path=logFile.getPath();
+		if(path.endsWith(TMP_EXT)) path=path.substring(0, path.length()-TMP_EXT.length());
+		if(path.endsWith(GZ_EXT)) path=path.substring(0, path.length()-GZ_EXT.length());
+		int ps=path.lastIndexOf('.');
+		if(ps>path.lastIndexOf(File.separatorChar)) path=path.substring(0, ps);
+		return new File(path+".loc");
+	}
+
+	/**
+	 * Lock of the idle log file. Closing releases the lock and deletes the .loc file
+	 */
+	private static final class IdleLock implements AutoCloseable {
+		private final File locFile;
+		private final FileOutputStream locFOS;
+		private final FileLock fLock;
+
+		private IdleLock(File locFile, FileOutputStream locFOS, FileLock fLock) {
+			this.locFile=locFile;
+			this.locFOS=locFOS;
+			this.fLock=fLock;
+		}
+
+		/**
+		 * @param logFile
+		 * @return the lock or null if the log file is used (by this or another process)
+		 */
+		static IdleLock tryLock(File logFile) {
+			File locFile=getLocFile(logFile);
+			FileOutputStream locFOS=null;
+			try {
+				locFOS=new FileOutputStream(locFile, true);
+				FileLock fLock=locFOS.getChannel().tryLock();
+				if(fLock!=null) return new IdleLock(locFile, locFOS, fLock);
+			}catch(IOException|OverlappingFileLockException ignore) {
+			}
+			if(locFOS!=null) {
+				try {
+					locFOS.close();
+				}catch(IOException ignore) {
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public void close() {
+			boolean isDeleted=locFile.delete();
+			try {
+				fLock.release();
+			}catch(IOException ignore) {
+			}
+			try {
+				locFOS.close();
+			}catch(IOException ignore) {
+			}
+			if(!isDeleted) locFile.delete();
+		}
+	}
+
+	/**
+	 * @param f
+	 * @return compressed file or null if the file is used or cannot be compressed
+	 */
+	private File compress(File f) {
+		try(IdleLock lock=IdleLock.tryLock(f)) {
+			if(lock==null || !f.exists()) return null;
+			File gz=new File(f.getPath()+GZ_EXT);
+			File tmp=new File(gz.getPath()+TMP_EXT);
+			try {
+				try(InputStream in=new FileInputStream(f);
+						OutputStream out=new GZIPOutputStream(new FileOutputStream(tmp), BUF_SIZE)) {
+					byte[] buf=new byte[BUF_SIZE];
+					int n;
+					while((n=in.read(buf))>0) {
+						out.write(buf, 0, n);
+					}
+				}
+				if(gz.exists()) {
+					// concatenated gzip members are read as one stream
+					try(FileChannel src=new FileInputStream(tmp).getChannel();
+							FileChannel dst=new FileOutputStream(gz, true).getChannel()) {
+						long pos=0, size=src.size();
+						while(pos<size) {
+							pos+=src.transferTo(pos, size-pos, dst);
+						}
+					}
+					tmp.delete();
+				}else if(!tmp.renameTo(gz)) {
+					throw new IOException("Cannot rename "+tmp+" to "+gz);
+				}
+				gz.setLastModified(f.lastModified());
+				f.delete();
+				l.log(null, "Log file compressed: "+gz, ILog.DEBUG_NOH, null, true, false, 0);
+				return gz;
+			}catch(IOException e) {
+				tmp.delete();
+				l.reportInternalError("log compress", e);
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Deletes the temporary file left by the interrupted compression
+	 * @param tmp
+	 */
+	private void deleteTemp(File tmp) {
+		try(IdleLock lock=IdleLock.tryLock(tmp)) {
+			if(lock!=null) tmp.delete();
+		}
+	}
+
+	private void applyRetention(ArrayList<File> files, File current) {
+		if(maxTotalSize<=0 && maxFiles<=0 && maxAgeMillis<=0) return;
+		final long now=System.currentTimeMillis();
+		// newest first, the current file is always kept and counted
+		files.remove(current);
+		files.sort(Comparator.comparingLong(File::lastModified).reversed());
+		files.add(0, current);
+		long totalSize=0;
+		int count=0;
+		for(File f: files) {
+			long length=f.length();
+			boolean isKeep=f==current || ((maxFiles<=0 || count<maxFiles)
+					&& (maxTotalSize<=0 || totalSize+length<=maxTotalSize)
+					&& (maxAgeMillis<=0 || now-f.lastModified()<=maxAgeMillis));
+			if(isKeep || !delete(f)) {
+				count++;
+				totalSize+=length;
+			}
+		}
+	}
+
+	private boolean delete(File f) {
+		if(f.getName().endsWith(GZ_EXT)) {
+			if(!f.delete()) return false;
+		}else {
+			try(IdleLock lock=IdleLock.tryLock(f)) {
+				if(lock==null || !f.delete()) return false;
+			}
+		}
+		l.log(null, "Log file deleted: "+f, ILog.DEBUG_NOH, null, true, false, 0);
+		return true;
+	}
+}
@@ -0,0 +1,198 @@
+package org.mpru.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sampling policy of the detailed messages: decides whether the message is printed before it is created,
+ * see {@link ILog#setSampler(byte, LogSampler)} and {@link Logger#setSampler(String, byte, LogSampler)}.
+ * One sampler can be shared by several Logs (the messages of all of them are sampled together).
+ * <pre><code>log.setSampler(ILog.DEBUG, LogSampler.perSecond(100)); // debug and trace messages: not more than 100 per second
+ *log.setSampler(ILog.TRACE, LogSampler.oneIn(1000)); // trace messages: every 1000th
+ *...
+ *LogSampler.setKey(requestId); // at the request start: byKey samplers keep all or none of the request messages</code></pre>
+ */
+public abstract class LogSampler {
+
+	private static final ThreadLocal<Object> KEY=new ThreadLocal<>();
+
+	private final LongAdder sampledOut=new LongAdder();
+
+	/**
+	 * Called by the logging thread for each message of the sampled levels, so it should be fast and should not block
+	 * @param level - message level
+	 * @return true if the message should be printed
+	 */
+	protected abstract boolean isKept(byte level);
+
+	/**
+	 * @return false if the message is sampled out (counted)
+	 */
+	final boolean sample(byte level) {
+		if(isKept(level)) return true;
+		sampledOut.increment();
+		return false;
+	}
+
+	/**
+	 * @return number of the messages not printed by this sampler
+	 */
+	public long getSampledOutCount() {
+		return sampledOut.sum();
+	}
+
+	/**
+	 * @param n - keep every n-th message (1 - all)
+	 * @return sampler keeping 1 of n messages
+	 */
+	public static LogSampler oneIn(int n) {
+		if(n<1) throw new IllegalArgumentException("n<1: "+n);
+		return new OneIn(n);
+	}
+
+	/**
+	 * @param count - max messages per second (burst up to count messages after a pause)
+	 * @return sampler limiting the messages rate
+	 */
+	public static LogSampler perSecond(int count) {
+		if(count<1) throw new IllegalArgumentException("count<1: "+count);
+		return new PerSecond(count);
+	}
+
+	/**
+	 * @param fraction - part of the keys kept, 0..1
+	 * @return sampler keeping the messages logged with the key (see {@link #setKey(Object)}) selected by the key hash,
+	 * the messages logged without key are kept. All byKey samplers keep the same keys
+	 * (the keys kept by a smaller fraction are kept by a bigger one)
+	 */
+	public static LogSampler byKey(double fraction) {
+		if(!(fraction>=0 && fraction<=1)) throw new IllegalArgumentException("fraction: "+fraction);
+		return new ByKey(fraction);
+	}
+
+	/**
+	 * Sets the sampling key (request id, trace id, session...) of the messages logged by the current thread
+	 * @param key - null to clear (do it at the request end if threads are pooled)
+	 */
+	public static void setKey(Object key) {
+		if(key==null) KEY.remove();
+		else KEY.set(key);
+	}
+
+	/**
+	 * @return the sampling key of the current thread or null
+	 */
+	public static Object getKey() {
+		return KEY.get();
+	}
+
+	/**
+	 * @param samplers - samplers by the lowest level or null
+	 * @return copy of samplers with the sampler set, null if there are no samplers
+	 */
+	static LogSampler[] set(LogSampler[] samplers, byte level, LogSampler sampler) {
+		if(level<0 || level>ILog.USE_SAME_LEVEL) throw new IllegalArgumentException("level: "+level);
+		LogSampler[] a=samplers==null?new LogSampler[ILog.USE_SAME_LEVEL+1]:samplers.clone();
+		a[level]=sampler;
+		for(LogSampler s: a) {
+			if(s!=null) return a;
+		}
+		return null;
+	}
+
+	/**
+	 * @param samplers - samplers by the lowest level or null
+	 * @return samplers by the message level (the sampler with the nearest lower level), null if there are no samplers
+	 */
+	static LogSampler[] byLevel(LogSampler[] samplers) {
+		if(samplers==null) return null;
+		LogSampler[] a=new LogSampler[samplers.length];
+		LogSampler s=null;
+		for(int i=0;i<a.length;i++) {
+			if(samplers[i]!=null) s=samplers[i];
+			a[i]=s;
+		}
+		return a;
+	}
+
+	private static final class OneIn extends LogSampler {
+		private final int n;
+		private final AtomicLong count=new AtomicLong();
+
+		OneIn(int n) {
+			this.n=n;
+		}
+
+		@Override
+		protected boolean isKept(byte level) {
+			return n==1 || count.getAndIncrement()%n==0;
+		}
+
+		@Override
+		public String toString() {
+			return "1/"+n;
+		}
+	}
+
+	/**
+	 * Token bucket as GCRA: the bucket state is the time when it is full again (one CAS per kept message,
+	 * the sampled out messages only read it)
+	 */
+	private static final class PerSecond extends LogSampler {
+		private final int count;
+		private final long intervalNanos;
+		private final long burstNanos;
+		private final AtomicLong fullAt=new AtomicLong(System.nanoTime());
+
+		PerSecond(int count) {
+			this.count=count;
+			intervalNanos=Math.max(1, 1000000000L/count);
+			burstNanos=intervalNanos*count;
+		}
+
+		@Override
+		protected boolean isKept(byte level) {
+			long now=System.nanoTime();
+			while(true) {
+				long t=fullAt.get();
+				long next=(t-now<0?now:t)+intervalNanos;
+				if(next-now>burstNanos) return false;
+				if(fullAt.compareAndSet(t, next)) return true;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return count+"/s";
+		}
+	}
+
+	private static final class ByKey extends LogSampler {
+		private final double fraction;
+		private final long threshold;
+
+		ByKey(double fraction) {
+			this.fraction=fraction;
+			threshold=(long) (fraction*(1L<<32));
+		}
+
+		@Override
+		protected boolean isKept(byte level) {
+			Object key=KEY.get();
+			if(key==null) return true;
+			// murmur3 finalizer, the high 32 bits are uniform for any hashCode()
+			long h=key.hashCode();
+			h^=h>>>33;
+			h*=0xff51afd7ed558ccdL;
+			h^=h>>>33;
+			h*=0xc4ceb9fe1a85ec53L;
+			h^=h>>>33;
+			return h>>>32<threshold;
+		}
+
+		@Override
+		public String toString() {
+			return "key "+fraction;
+		}
+	}
+}
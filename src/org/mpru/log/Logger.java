@@ -1,10 +1,31 @@
 package org.mpru.log;
 
 import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
 import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.IntToLongFunction;
+import java.util.function.Supplier;
 
 public class Logger implements ILogger{
 
@@ -15,12 +36,117 @@ public class Logger implements ILogger{
 	
 	public static final String LOGGER_USE_ANSI_COLOR = Logger.SYS_PROP_PREFIX+".useAnsiColor";
 	public static final String LOGGER_PRINT_MILLIS = Logger.SYS_PROP_PREFIX+'.'+ILog.LOG_TIME_MILLIS;
+	/**
+	 * System property enabling the lock-free ring buffer between log() callers and the flusher:
+	 * "true" (ring of MSG_MAX messages) or the ring capacity (rounded up to the power of 2)
+	 */
+	public static final String LOGGER_RING_BUFFER = Logger.SYS_PROP_PREFIX+".ringBuffer";
+	/**
+	 * System property making log() callers serialize the messages into the off-heap arena (direct memory) instead of
+	 * queueing Msg objects (see MsgArena): "true" (4 MB) or the arena size in bytes (rounded up to the power of 2).
+	 * The arguments are converted to text by log() (except primitives, String, Character, Boolean and Date),
+	 * deferrable LazyArg arguments are calculated by log() too. Enables Msg recycling unless it is disabled explicitly.
+	 * Buffer size and capacity are in bytes in this mode
+	 */
+	public static final String LOGGER_OFF_HEAP_ARENA = Logger.SYS_PROP_PREFIX+".offHeapArena";
+	/**
+	 * System property and logger property setting the max number of deferred messages waiting for printing (<=0 - unlimited)
+	 */
+	public static final String MAX_DEFERRED = "maxDeferred";
+	public static final String LOGGER_MAX_DEFERRED = Logger.SYS_PROP_PREFIX+'.'+MAX_DEFERRED;
+	/**
+	 * System property setting the max number of parsed message patterns cached by MsgFormatter (0 - no cache)
+	 */
+	public static final String LOGGER_PATTERN_CACHE_SIZE = Logger.SYS_PROP_PREFIX+".patternCacheSize";
+	/**
+	 * System property enabling Msg recycling: "true" (pool of 2*MSG_MAX messages) or the pool capacity.
+	 * In this mode ILogOut implementations must not keep Msg references after print() returns,
+	 * and log() returns ICancel for deferred messages only
+	 */
+	public static final String LOGGER_RECYCLE_MSGS = Logger.SYS_PROP_PREFIX+".recycleMsgs";
+	/**
+	 * System property making each ILogOut print in its own thread from its queue (see AsyncLogOut):
+	 * "true" (queue of 4*MSG_MAX messages) or the queue capacity. The screen output drops messages when its queue is full,
+	 * other outputs make the flusher wait. The message text is made before queueing if there are several outputs
+	 */
+	public static final String LOGGER_ASYNC_OUTS = Logger.SYS_PROP_PREFIX+".asyncOuts";
+	/**
+	 * System property and logger property: what log() does when the message buffer is full.
+	 * BACK_PRESSURE_CALLER_RUNS (default) - prints the buffered messages in the calling thread,
+	 * BACK_PRESSURE_BLOCK - waits for the flusher, BACK_PRESSURE_DROP_NEW - drops the message,
+	 * BACK_PRESSURE_DROP_BELOW_LEVEL - drops the message less important than BACK_PRESSURE_LEVEL (WARN by default),
+	 * waits for the flusher otherwise. Dropped messages are counted by level and reported by the warning printed by the flusher
+	 */
+	public static final String BACK_PRESSURE = "backPressure";
+	public static final String LOGGER_BACK_PRESSURE = Logger.SYS_PROP_PREFIX+'.'+BACK_PRESSURE;
+	public static final String BACK_PRESSURE_LEVEL = "backPressureLevel";
+	public static final String LOGGER_BACK_PRESSURE_LEVEL = Logger.SYS_PROP_PREFIX+'.'+BACK_PRESSURE_LEVEL;
+	public static final String BACK_PRESSURE_CALLER_RUNS = "callerRuns";
+	public static final String BACK_PRESSURE_BLOCK = "block";
+	public static final String BACK_PRESSURE_DROP_NEW = "dropNew";
+	public static final String BACK_PRESSURE_DROP_BELOW_LEVEL = "dropBelowLevel";
+	/**
+	 * System property and logger property: how the flusher waits for messages.
+	 * FLUSH_WAIT_PARK (default) - parks MIN_FLUSH_INTERVAL after printing, MAX_FLUSH_INTERVAL when idle,
+	 * FLUSH_WAIT_TIMED_PARK - parks FLUSH_LATENCY, FLUSH_WAIT_YIELD - Thread.yield() between flushes,
+	 * FLUSH_WAIT_SPIN - busy-spin (for a dedicated core), FLUSH_WAIT_ADAPTIVE - the pause is adjusted so that
+	 * p99 time from log() to the outputs flush meets FLUSH_LATENCY (see FlushPacer).
+	 * The parked flusher is woken (unparked) when the message buffer is half full
+	 */
+	public static final String FLUSH_WAIT = "flushWait";
+	public static final String LOGGER_FLUSH_WAIT = Logger.SYS_PROP_PREFIX+'.'+FLUSH_WAIT;
+	/**
+	 * System property and logger property: target flush latency (millis) of FLUSH_WAIT_TIMED_PARK and FLUSH_WAIT_ADAPTIVE
+	 */
+	public static final String FLUSH_LATENCY = "flushLatencyMillis";
+	public static final String LOGGER_FLUSH_LATENCY = Logger.SYS_PROP_PREFIX+'.'+FLUSH_LATENCY;
+	public static final String FLUSH_WAIT_PARK = "park";
+	public static final String FLUSH_WAIT_TIMED_PARK = "timedPark";
+	public static final String FLUSH_WAIT_YIELD = "yield";
+	public static final String FLUSH_WAIT_SPIN = "spin";
+	public static final String FLUSH_WAIT_ADAPTIVE = "adaptive";
+	/**
+	 * System property: "false" - do not register the logger MBean (see LoggerMXBean)
+	 */
+	public static final String LOGGER_JMX = Logger.SYS_PROP_PREFIX+".jmx";
+	/**
+	 * System property and logger property: interval (seconds) of the summary line printed to the file only with
+	 * the percentiles of the log() call latency (enqueue) and of the flush latency (printing and outputs flush)
+	 * measured in the interval, 0 (default) - not printed. The line is not printed if nothing was logged
+	 */
+	public static final String LATENCY_SUMMARY = "latencySummarySeconds";
+	public static final String LOGGER_LATENCY_SUMMARY = Logger.SYS_PROP_PREFIX+'.'+LATENCY_SUMMARY;
+	/**
+	 * System property and logger property: window (millis) of the repeated message suppression, 0 (default) - disabled.
+	 * The message with the same level, prefix and pattern (and outputs) as the message printed less than the window ago
+	 * is not printed but counted, when the window is over one message "repeated N times from FIRST to LAST: pattern"
+	 * is printed with the level and prefix of the message (see MsgDedup). Deferred messages are not deduplicated
+	 */
+	public static final String DEDUP_WINDOW = "dedupWindowMillis";
+	public static final String LOGGER_DEDUP_WINDOW = Logger.SYS_PROP_PREFIX+'.'+DEDUP_WINDOW;
+	/**
+	 * System property and logger property: "true" - the messages are repeated only if the text with the argument values
+	 * is the same too (the text is made by log() then)
+	 */
+	public static final String DEDUP_BY_TEXT = "dedupByText";
+	public static final String LOGGER_DEDUP_BY_TEXT = Logger.SYS_PROP_PREFIX+'.'+DEDUP_BY_TEXT;
+	/**
+	 * System property setting the max number of the deduplication keys (1024 by default), the messages of the other
+	 * keys are printed while the table is full of the keys with open windows
+	 */
+	public static final String LOGGER_DEDUP_MAX_KEYS = Logger.SYS_PROP_PREFIX+".dedupMaxKeys";
 
 	protected static final ShutdHook HOOK = new ShutdHook();
 	protected static final int MSG_MAX = 500;
 	protected static final long DATE_PRINT_INTERVAL = 2*3600*1000; // 2h
 
 	protected static final int MSG_MAX_DEFERRED = 1000;
+	protected static final int DEFER_WHEEL_SIZE = 1024;
+	protected static final long DEFER_TICK_MILLIS = 10;
+	protected static final long BLOCK_PARK_NANOS = 100000;
+	protected static final long DROP_SUMMARY_INTERVAL = 1000;
+	protected static final int ARENA_DEFAULT_SIZE = 4*1024*1024;
+	protected static final int DEDUP_MAX_KEYS = 1024;
 
 	static final String INTERNAL_PREFIX = "*LOG";
 
@@ -35,16 +161,61 @@ public class Logger implements ILogger{
 	protected MsgFormatter msgFormatter=new MsgFormatter();
 
 	private int msgIndex;
-	private Msg[] msgs=new Msg[MSG_MAX];
-	private ArrayList<Msg> msgQueue=new ArrayList<>();
+	private Msg[] msgs;
+	private final MsgRing ring;
+	private final MsgArena arena;
+	private final MsgPool pool;
+	private final DeferWheel deferWheel;
+	private final MsgDedup dedup;
+	private final Consumer<MsgDedup.Window> dedupSummary=this::logDedupSummary;
+	private long nextDedupExpireTime;
+	private final int asyncCapacity; // 0 - ILogOut.print() is called by the flusher
+	private volatile String backPressure=BACK_PRESSURE_CALLER_RUNS;
+	private volatile byte backPressureLevel=ILog.WARN;
+	private final AtomicLongArray droppedByLevel=new AtomicLongArray(256);
+	private final AtomicLongArray sampledOutByLevel=new AtomicLongArray(256);
+	private final HashMap<String, LogSampler[]> prefixSamplers=new HashMap<>(); // by the lowest level, guarded by itself
+	private volatile Map<String, LogSampler[]> prefixLevelSamplers=Collections.emptyMap(); // by the message level, copy on write
+	private final long[] reportedDrops=new long[256]; // guarded by flushLock
+	private long nextDropSummaryTime;
 	private boolean isFullQueueWarnPrinted;
 
+	private volatile String flushWait=FLUSH_WAIT_PARK;
+	private final FlushPacer pacer=new FlushPacer(MIN_FLUSH_INTERVAL);
+
+	// statistics (see LoggerMXBean)
+	private final AtomicReferenceArray<LongAdder> loggedByLevel=new AtomicReferenceArray<>(256);
+	private final long[] printedByLevel=new long[256]; // written holding flushLock
+	private final LongAdder flushCount=new LongAdder();
+	private final LongAdder flushNanos=new LongAdder();
+	private final AtomicLong maxFlushNanos=new AtomicLong();
+	private final LongAdder internalErrors=new LongAdder();
+	private final LongAdder producerWaitNanos=new LongAdder();
+	private final LongAdder suppressedCount=new LongAdder();
+	private final LatencyHistogram enqueueLatency=new LatencyHistogram();
+	private final LatencyHistogram flushLatency=new LatencyHistogram();
+	private volatile long latencySummaryMillis;
+	private volatile boolean isKeepFileArgs;
+	private long nextLatencySummaryTime; // guarded by flushLock
+	private LatencyHistogram.Snapshot reportedEnqueue=enqueueLatency.snapshot();
+	private LatencyHistogram.Snapshot reportedFlush=flushLatency.snapshot();
+	private final Set<Log> rootLogs=Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+	private Object jmx; // LoggerJmx, the class is not loaded if JMX is not used
+
 	private final Object flushLock=new Object();
+	private Msg[] batch=new Msg[MSG_MAX*2]; // guarded by flushLock
+	private Msg[] spareBatch; // printed batch array for reuse
+	private int batchSize;
 	private final Object logLock=new Object();
 	private volatile String printedDate;
 
+	/**
+	 * Time (millis) the logging threads waited in log() since the last "logger delayed" warning
+	 * (updated from producerWaitNanos by the flusher)
+	 */
 	protected volatile long appWaitMillis;
 	protected long appWaitMillisBarrier=1000;
+	private volatile long reportedWaitNanos; // producerWaitNanos reported by the last "logger delayed" warning
 
 	static {
 		try {
@@ -56,8 +227,18 @@ public class Logger implements ILogger{
 
 	@Override
 	public void addLogOut(ILogOut logOut) {
+		addLogOut(logOut, false);
+	}
+
+	private void addLogOut(ILogOut logOut, boolean isDropWhenFull) {
 		synchronized(logOuts) {
 			if(logOuts.indexOf(logOut)>0) return;
+			if(asyncCapacity>0) {
+				for(ILogOut o: logOuts) {
+					if(((AsyncLogOut) o).getLogOut()==logOut) return;
+				}
+				logOut=new AsyncLogOut(this, logOut, asyncCapacity, isDropWhenFull);
+			}
 			logOuts.add(logOut);
 		}
 
@@ -76,16 +257,49 @@ public class Logger implements ILogger{
 	}
 
 	public Logger(boolean isUseScreenOut, boolean isUseFileOut){
+		// bad values are reported when the logger is ready, the defaults are used
+		ArrayList<Exception> propErrors=new ArrayList<>();
+		int size=getSizeProperty(LOGGER_OFF_HEAP_ARENA, ARENA_DEFAULT_SIZE, 0, propErrors);
+		arena=size>0?new MsgArena(size, msgFormatter):null;
+		size=arena==null?getSizeProperty(LOGGER_RING_BUFFER, MSG_MAX, 0, propErrors):0;
+		if(size>0) {
+			ring=new MsgRing(size);
+		}else {
+			ring=null;
+			msgs=new Msg[MSG_MAX];
+		}
+		size=getSizeProperty(LOGGER_RECYCLE_MSGS, MSG_MAX*2, arena!=null?MSG_MAX*2:0, propErrors);
+		pool=size>0?new MsgPool(size):null;
+		asyncCapacity=getSizeProperty(LOGGER_ASYNC_OUTS, MSG_MAX*4, 0, propErrors);
+		String propVal=System.getProperty(LOGGER_BACK_PRESSURE);
+		try {
+			if(propVal!=null) setBackPressure(propVal);
+		}catch(IllegalArgumentException e) {
+			propErrors.add(e);
+		}
+		propVal=System.getProperty(LOGGER_BACK_PRESSURE_LEVEL);
+		if(propVal!=null) backPressureLevel=getLevelByName(propVal);
+		propVal=System.getProperty(LOGGER_FLUSH_WAIT);
+		try {
+			if(propVal!=null) setFlushWait(propVal);
+		}catch(IllegalArgumentException e) {
+			propErrors.add(e);
+		}
+		pacer.setTargetMillis(getLongProperty(LOGGER_FLUSH_LATENCY, pacer.getTargetMillis(), propErrors));
+		setLatencySummary(getLongProperty(LOGGER_LATENCY_SUMMARY, 0, propErrors));
+		deferWheel=new DeferWheel(DEFER_WHEEL_SIZE, DEFER_TICK_MILLIS, (int) getLongProperty(LOGGER_MAX_DEFERRED, MSG_MAX_DEFERRED, propErrors));
+		dedup=new MsgDedup(getSizeProperty(LOGGER_DEDUP_MAX_KEYS, DEDUP_MAX_KEYS, DEDUP_MAX_KEYS, propErrors), msgFormatter);
+		dedup.setWindowMillis(getLongProperty(LOGGER_DEDUP_WINDOW, 0, propErrors));
+		dedup.setByText(Boolean.getBoolean(LOGGER_DEDUP_BY_TEXT));
 		LF=new LogFlusher();
 		LF.setDaemon(true);
 		LF.start();
-		String propVal;
 		
 		ILogOut logOut;
 		if(isUseScreenOut) {
 			logOut = Log.createInstance(SCREENOUT_CLASS_PROPERTY, ILogOut.class);
 			if(logOut==null) logOut=new StdLogOut();
-			addLogOut(logOut);
+			addLogOut(logOut, true);
 		}
 		if(isUseFileOut) {
 			logOut = Log.createInstance(FILEOUT_CLASS_PROPERTY, ILogOut.class);
@@ -95,18 +309,80 @@ public class Logger implements ILogger{
 		propVal = System.getProperty(LOGGER_PRINT_MILLIS);
 		msgFormatter.setLogMillis(Boolean.parseBoolean(propVal));
 
+		for(Exception e: propErrors) {
+			reportInternalError("Bad logger system property, the default is used", e);
+		}
 		HOOK.addLog(this);
+		if(!"false".equalsIgnoreCase(System.getProperty(LOGGER_JMX))) {
+			try {
+				jmx=LoggerJmx.register(this);
+			}catch(Exception|LinkageError e) {
+				// no JMX in the runtime or no permission
+			}
+		}
+	}
+
+	/**
+	 * @param name - system property: "true", "false" or the size
+	 * @param trueValue - the size if the property is "true"
+	 * @param def - the size if the property is not set or its value is bad
+	 * @param errors - gets the error if the value is bad
+	 * @return the size, 0 if the property is "false"
+	 */
+	private static int getSizeProperty(String name, int trueValue, int def, List<Exception> errors) {
+		String value=System.getProperty(name);
+		if(value==null) return def;
+		if(value.equalsIgnoreCase("true")) return trueValue;
+		if(value.equalsIgnoreCase("false")) return 0;
+		try {
+			int size=Integer.parseInt(value.trim());
+			if(size>0) return size;
+		}catch(NumberFormatException ignore) {
+		}
+		errors.add(new IllegalArgumentException(name+"="+value+" (true, false or size expected)"));
+		return def;
+	}
+
+	/**
+	 * @param name - system property
+	 * @param def - the value if the property is not set or its value is bad
+	 * @param errors - gets the error if the value is bad
+	 */
+	private static long getLongProperty(String name, long def, List<Exception> errors) {
+		String value=System.getProperty(name);
+		if(value==null) return def;
+		try {
+			return Long.parseLong(value.trim());
+		}catch(NumberFormatException e) {
+			errors.add(new IllegalArgumentException(name+"="+value+" (number expected)"));
+			return def;
+		}
 	}
 
 	protected Msg newMsg() {
+		if(pool!=null) {
+			Msg m=pool.poll();
+			if(m==null) m=new Msg();
+			m.isRecyclable=true;
+			return m;
+		}
 		return new Msg();
 	}
 
+	/**
+	 * Returns the printed message to the pool (if recycling enabled and no ICancel handle refers to it)
+	 * @param m
+	 */
+	protected void recycle(Msg m) {
+		if(m.isRecyclable && (m.pendingOuts==0 || AsyncLogOut.PENDING_OUTS.decrementAndGet(m)==0)) {
+			m.clear();
+			pool.offer(m);
+		}
+	}
+
 	@Override
 	public boolean cancel(ICancel msg) {
-		synchronized(msgQueue) {
-			return msgQueue.remove(msg);
-		}
+		return msg instanceof Msg && deferWheel.cancel((Msg) msg);
 	}
 	
 	@Override
@@ -124,76 +400,483 @@ public class Logger implements ILogger{
 		emergencyOut.print(m);
 	}
 	
+	/**
+	 * Makes the message text now if the arguments can be changed after log() call (converts the mutable arguments
+	 * to text only if the message keeps the arguments, see setKeepFileArgs). Calculates lazy arguments
+	 * which are not deferrable (see LazyArg)
+	 * @param m
+	 * @return true if the text is made (or mutable arguments converted to text)
+	 */
 	protected boolean checkArgsFinal(Msg m) {
-		if(m==null || m.args==null) return false;
+		if(m==null) return false;
+		if(m.args==null) {
+			if(m.argKinds==0) return false;
+			Object o=m.argObj;
+			if(isLazy(o)) {
+				if(o instanceof LazyArg && ((LazyArg) o).isDeferrable()) return false;
+				o=m.argObj=msgFormatter.evalLazyArg(o);
+			}
+			if(isFinal(o)) return false;
+			if(m.isKeepArgs) {
+				m.argObj=msgFormatter.renderArg(o); // the other arguments are kept for the outputs
+				return true;
+			}
+			msgFormatter.makeText(m);
+			m.argObj=null; // can be changed, the text is printed only
+			m.argKinds=0;
+			return true;
+		}
 		Object[] args=m.args;
 		final int sz=args.length;
+		boolean isCopied=false;
+		boolean isMutable=false;
+		boolean isDeferredLazy=false;
 		Object o;
 		for(int i=0;i<sz;i++) {
 			o=args[i];
-			if(o==null || o instanceof String || o instanceof Character ||
-					(o instanceof Number && (
-					o instanceof Long || o instanceof Byte || o instanceof Double || o instanceof Float || o instanceof Integer || o instanceof Short))
-					) {
+			if(isFinal(o)) {
 				continue;
 			}
+			if(isLazy(o)) {
+				if(o instanceof LazyArg && ((LazyArg) o).isDeferrable()) {
+					isDeferredLazy=true;
+					continue;
+				}
+				if(!isCopied) {
+					// do not change the array passed by the caller
+					isCopied=true;
+					args=m.args=args.clone();
+				}
+				o=args[i]=msgFormatter.evalLazyArg(o);
+				if(isFinal(o)) continue;
+			}
+			isMutable=true;
+		}
+		if(!isMutable) return false;
+		if(!isDeferredLazy && !m.isKeepArgs) {
 			msgFormatter.makeText(m);
+			m.args=null; // can be changed, the text is printed only
+			m.argObj=null;
+			m.argKinds=0;
 			return true;
 		}
-		return false;
+		// the whole text cannot be made now (or the outputs need the arguments), convert mutable arguments only
+		if(!isCopied) args=m.args=args.clone();
+		for(int i=0;i<sz;i++) {
+			o=args[i];
+			if(!isFinal(o) && !(o instanceof LazyArg)) {
+				args[i]=msgFormatter.renderArg(o);
+			}
+		}
+		return true;
+	}
+
+	private static boolean isLazy(Object o) {
+		return o instanceof LazyArg || o instanceof Supplier;
+	}
+
+	private static boolean isFinal(Object o) {
+		return o==null || o instanceof String || o instanceof Character || o instanceof Boolean || o instanceof MsgFormatter.ArgText ||
+				(o instanceof Number && (
+				o instanceof Long || o instanceof Byte || o instanceof Double || o instanceof Float || o instanceof Integer || o instanceof Short)) ||
+				o instanceof Enum || o instanceof UUID || o instanceof Instant || o instanceof LocalDateTime || o instanceof LocalDate ||
+				o instanceof LocalTime || o instanceof OffsetDateTime || o instanceof ZonedDateTime;
 	}
 
 	@Override
 	public ICancel log(String prefix, String txt, byte level, Object[] args, boolean isScreen, boolean isFile, int deferMillis) {
 		if(!isFile && !isScreen) return null;
 		Msg m=newMsg();
+		m.args=args;
+		return log(m, prefix, txt, level, isScreen, isFile, deferMillis);
+	}
+
+	@Override
+	public ICancel log(String prefix, String txt, byte level, int argKinds, long arg0, long arg1, long arg2, Object argObj,
+			boolean isScreen, boolean isFile, int deferMillis) {
+		if(!isFile && !isScreen) return null;
+		Msg m=newMsg();
+		m.argKinds=argKinds;
+		m.arg0=arg0;
+		m.arg1=arg1;
+		m.arg2=arg2;
+		m.argObj=argObj;
+		return log(m, prefix, txt, level, isScreen, isFile, deferMillis);
+	}
+
+	private ICancel log(Msg m, String prefix, String txt, byte level, boolean isScreen, boolean isFile, int deferMillis) {
 		m.isFile=isFile;
 		m.isScreen=isScreen;
 		m.level=level;
 		m.pattern=txt;
-		m.args=args;
 		m.prefix=prefix;
+		m.isKeepArgs=isFile && isKeepFileArgs || msgFormatter.isKeepArgs();
 		long time=System.currentTimeMillis();
 		m.time=time;
 		if(isClose) {
+			m.isRecyclable=false;
 			emergencyPrint(m);
 			return m;
 		}
 		checkArgsFinal(m);
 		if(deferMillis>0) {
+			m.isRecyclable=false; // the caller holds ICancel
 			m.printAt=time+deferMillis;
-			if(msgQueue.size()>=MSG_MAX_DEFERRED) {
+			if(!deferWheel.schedule(m)) {
 				if(!isFullQueueWarnPrinted) {
 					isFullQueueWarnPrinted=true;
 					log(INTERNAL_PREFIX, "Delayed message queue full - some delayed messages ignored (this message is printed only once)", ILog.ERROR, null, true, true, 0);
 				}
-				return m;
-			}
-			synchronized(msgQueue) {
-				msgQueue.add(m);
-			}
-		}else	log(m);
+			}else countLogged(level);
+			return m;
+		}
+		if(dedup.isEnabled() && dedup.isRepeated(m, dedupSummary)) {
+			suppressedCount.increment();
+			if(!m.isRecyclable) return m;
+			recycle(m);
+			return null;
+		}
+		if(m.isRecyclable) {
+			// the message can be recycled by the flusher as soon as it is queued
+			log(m);
+			return null;
+		}
+		log(m);
 		return m;
 	}
 
 	private void log(Msg m) {
-		long timeStart=System.currentTimeMillis();
-		while(true) {
-			synchronized(logLock) {
-				if(msgIndex<MSG_MAX) {
-					msgs[msgIndex++]=m;
-					if(msgIndex*2>MSG_MAX) LF.askFlush();
-					appWaitMillis+=System.currentTimeMillis()-timeStart;
-					return;
+		long start=System.nanoTime();
+		byte level=m.level; // m can be recycled by the flusher as soon as it is queued
+		boolean isWaited=false;
+		boolean isQueued=true;
+		if(arena!=null) {
+			while(!arena.offer(m)) {
+				isWaited=true;
+				if(!waitBuffer(m)) {
+					isQueued=false;
+					break;
 				}
 			}
-			flush();
+			if(isQueued) {
+				if(arena.size()*2>arena.capacity()) LF.askFlush();
+				recycle(m); // serialized, the message is not needed anymore
+			}
+		}else if(ring!=null) {
+			while(!ring.offer(m)) {
+				isWaited=true;
+				if(!waitBuffer(m)) {
+					isQueued=false;
+					break;
+				}
+			}
+			if(ring.size()*2>ring.capacity()) LF.askFlush();
+		}else {
+			while(true) {
+				synchronized(logLock) {
+					if(msgIndex<MSG_MAX) {
+						msgs[msgIndex++]=m;
+						if(msgIndex*2>MSG_MAX) LF.askFlush();
+						break;
+					}
+				}
+				isWaited=true;
+				if(!waitBuffer(m)) {
+					isQueued=false;
+					break;
+				}
+			}
+		}
+		if(isQueued) countLogged(level);
+		long nanos=System.nanoTime()-start;
+		enqueueLatency.record(nanos);
+		if(isWaited) producerWaitNanos.add(nanos);
+	}
+
+	/**
+	 * Queues the summary of the repeated messages suppressed in the window
+	 * @param w - the closed window
+	 */
+	private void logDedupSummary(MsgDedup.Window w) {
+		MsgDedup.Key k=w.key;
+		long first=w.first>0?w.first:w.start; // can be not written yet by the counting thread
+		long last=Math.max(w.last, first);
+		StringBuilder sb=new StringBuilder(32);
+		msgFormatter.timeRenderer.appendTime(first, sb, true);
+		String firstTime=sb.toString();
+		sb.setLength(0);
+		msgFormatter.timeRenderer.appendTime(last, sb, true);
+		Msg m=newMsg();
+		m.time=System.currentTimeMillis();
+		m.level=k.level;
+		m.prefix=k.prefix;
+		m.isScreen=k.isScreen;
+		m.isFile=k.isFile;
+		m.pattern="repeated {0} times from {1} to {2}: {3}";
+		m.args=new Object[] {w.repeats, firstTime, sb.toString(), k.text!=null?k.text:k.pattern};
+		log(m);
+	}
+
+	/**
+	 * Closes the deduplication windows which are over (not more often than MIN_FLUSH_INTERVAL unless isForce)
+	 * @param isForce - close all the windows
+	 */
+	private void expireDedup(boolean isForce) {
+		long now=System.currentTimeMillis();
+		if(!isForce && now<nextDedupExpireTime) return;
+		nextDedupExpireTime=now+MIN_FLUSH_INTERVAL;
+		dedup.expire(isForce?Long.MAX_VALUE:now, dedupSummary);
+	}
+
+	private void countLogged(byte level) {
+		LongAdder counter=loggedByLevel.get(level&0xff);
+		if(counter==null) {
+			loggedByLevel.compareAndSet(level&0xff, null, new LongAdder());
+			counter=loggedByLevel.get(level&0xff);
+		}
+		counter.increment();
+	}
+
+	/**
+	 * Called when the message buffer is full, applies the back pressure policy
+	 * @param m
+	 * @return false if the message is dropped, true to retry
+	 */
+	private boolean waitBuffer(Msg m) {
+		String policy=backPressure;
+		Thread thread=Thread.currentThread();
+		if(thread instanceof AsyncLogOut.Drainer) {
+			// the flusher can wait for this thread
+			dropMsg(m);
+			return false;
+		}
+		if(policy==BACK_PRESSURE_DROP_NEW || (policy==BACK_PRESSURE_DROP_BELOW_LEVEL && m.level>backPressureLevel)) {
+			dropMsg(m);
+			return false;
+		}
+		if(policy!=BACK_PRESSURE_CALLER_RUNS && thread!=LF && LF.isAlive()) {
+			LF.askFlush();
+			LockSupport.parkNanos(BLOCK_PARK_NANOS);
+			return true;
+		}
+		flush();
+		return true;
+	}
+
+	private void dropMsg(Msg m) {
+		droppedByLevel.incrementAndGet(m.level&0xff);
+		recycle(m);
+	}
+
+	/**
+	 * @param level
+	 * @return number of the messages of the level dropped because the message buffer was full
+	 */
+	public long getDroppedCount(byte level) {
+		return droppedByLevel.get(level&0xff);
+	}
+
+	/**
+	 * @return number of the messages dropped because the message buffer was full
+	 */
+	public long getDroppedCount() {
+		long sum=0;
+		for(int i=0;i<256;i++) {
+			sum+=droppedByLevel.get(i);
+		}
+		return sum;
+	}
+
+	/**
+	 * Sets the sampling policy of the messages of the level and the more detailed levels logged by the Logs with the prefix
+	 * (which have no samplers set by {@link ILog#setSampler(byte, LogSampler)} themselves or by their parents)
+	 * @param prefix
+	 * @param level
+	 * @param sampler - null to remove
+	 */
+	public void setSampler(String prefix, byte level, LogSampler sampler) {
+		synchronized(prefixSamplers) {
+			LogSampler[] samplers=LogSampler.set(prefixSamplers.get(prefix), level, sampler);
+			HashMap<String, LogSampler[]> map=new HashMap<>(prefixLevelSamplers);
+			if(samplers==null) {
+				prefixSamplers.remove(prefix);
+				map.remove(prefix);
+			}else {
+				prefixSamplers.put(prefix, samplers);
+				map.put(prefix, LogSampler.byLevel(samplers));
+			}
+			prefixLevelSamplers=map;
+		}
+		Log.invalidateLevels();
+	}
+
+	/**
+	 * @param prefix
+	 * @return samplers of the prefix by the message level or null
+	 */
+	LogSampler[] getLevelSamplers(String prefix) {
+		return prefixLevelSamplers.get(prefix);
+	}
+
+	void countSampledOut(byte level) {
+		sampledOutByLevel.incrementAndGet(level&0xff);
+	}
+
+	/**
+	 * @param level
+	 * @return number of the messages of the level not printed by the samplers (see LogSampler)
+	 */
+	public long getSampledOutCount(byte level) {
+		return sampledOutByLevel.get(level&0xff);
+	}
+
+	/**
+	 * @return number of the messages not printed by the samplers
+	 */
+	public long getSampledOutCount() {
+		long sum=0;
+		for(int i=0;i<256;i++) {
+			sum+=sampledOutByLevel.get(i);
+		}
+		return sum;
+	}
+
+	/**
+	 * @param policy - BACK_PRESSURE_* (case insensitive)
+	 */
+	public void setBackPressure(String policy) {
+		for(String p: new String[] {BACK_PRESSURE_CALLER_RUNS, BACK_PRESSURE_BLOCK, BACK_PRESSURE_DROP_NEW, BACK_PRESSURE_DROP_BELOW_LEVEL}) {
+			if(p.equalsIgnoreCase(policy)) {
+				backPressure=p;
+				return;
+			}
+		}
+		throw new IllegalArgumentException("Unknown back pressure policy: "+policy);
+	}
+
+	public String getBackPressure() {
+		return backPressure;
+	}
+
+	/**
+	 * Prints the warning with the numbers of the messages dropped since the previous warning (by level).
+	 * Called by the flusher holding flushLock
+	 * @param isForce - print now (otherwise not more often than DROP_SUMMARY_INTERVAL)
+	 */
+	private void printDropSummary(boolean isForce) {
+		long now=System.currentTimeMillis();
+		if(!isForce && now<nextDropSummaryTime) return;
+		long[] drops=new long[256];
+		long total=0;
+		for(int i=0;i<256;i++) {
+			long n=droppedByLevel.get(i)-reportedDrops[i];
+			reportedDrops[i]+=n;
+			drops[i]=n;
+			total+=n;
+		}
+		if(total==0) return;
+		nextDropSummaryTime=now+DROP_SUMMARY_INTERVAL;
+		StringBuilder sb=new StringBuilder("messages dropped (buffer full, ").append(backPressure).append("):");
+		for(Entry<String, Long> e: countByLevelName(i -> drops[i]).entrySet()) {
+			sb.append(' ').append(e.getKey()).append(' ').append(e.getValue()).append(',');
 		}
+		sb.append(" total ").append(total);
+		Msg tm=newMsg();
+		tm.time=now;
+		tm.prefix=INTERNAL_PREFIX;
+		tm.level=ILog.WARN;
+		tm.isScreen=tm.isFile=true;
+		tm.pattern=sb.toString();
+		output1(tm);
+		recycle(tm);
+	}
+
+	/**
+	 * Prints the latency percentiles measured since the previous summary to the file.
+	 * Called by the flusher holding flushLock
+	 * @param isForce - print now (otherwise not more often than LATENCY_SUMMARY)
+	 */
+	private void printLatencySummary(boolean isForce) {
+		long interval=latencySummaryMillis;
+		if(interval<=0) return;
+		long now=System.currentTimeMillis();
+		if(nextLatencySummaryTime==0) nextLatencySummaryTime=now+interval;
+		if(!isForce && now<nextLatencySummaryTime) return;
+		nextLatencySummaryTime=now+interval;
+		LatencyHistogram.Snapshot enqueue=enqueueLatency.snapshot();
+		LatencyHistogram.Snapshot flush=flushLatency.snapshot();
+		LatencyHistogram.Snapshot enqueueDiff=enqueue.minus(reportedEnqueue);
+		LatencyHistogram.Snapshot flushDiff=flush.minus(reportedFlush);
+		reportedEnqueue=enqueue;
+		reportedFlush=flush;
+		if(enqueueDiff.getCount()==0) return;
+		StringBuilder sb=new StringBuilder(160).append("latency: enqueue ");
+		enqueueDiff.appendSummary(sb);
+		sb.append("; flush ");
+		flushDiff.appendSummary(sb);
+		Msg tm=newMsg();
+		tm.time=now;
+		tm.prefix=INTERNAL_PREFIX;
+		tm.level=ILog.INFO;
+		tm.isFile=true;
+		tm.pattern=sb.toString();
+		output1(tm);
+		recycle(tm);
 	}
 
 	@Override
 	public boolean flush() {
+		long oldest=Long.MAX_VALUE;
+		int count;
+		if(arena!=null) {
+			if(arena.isEmpty()) return false;
+			long start=System.nanoTime();
+			synchronized(flushLock) {
+				// print by MSG_MAX messages, so that the decoded messages do not take much heap;
+				// not more than the arena capacity is drained, so that fast producers cannot hold the flusher here forever
+				count=0;
+				int bytes=arena.size();
+				Msg m=newMsg();
+				while(count<bytes/MsgArena.ALIGN && arena.poll(m)) {
+					oldest=Math.min(oldest, Math.max(m.time, m.printAt));
+					output(m);
+					m=newMsg();
+					if(++count%MSG_MAX==0) printBatch();
+				}
+				recycle(m);
+				printBatch();
+				if(count==0) return false;
+				printDropSummary(false);
+				printLatencySummary(false);
+			}
+			flushLogOuts();
+			onFlushed(start, oldest, count);
+			return true;
+		}
+		if(ring!=null) {
+			if(ring.isEmpty()) return false;
+			long start=System.nanoTime();
+			synchronized(flushLock) {
+				// drain not more than the ring capacity, so that fast producers cannot hold the flusher here forever
+				int n=ring.capacity();
+				Msg m;
+				while(n>0 && (m=ring.poll())!=null) {
+					oldest=Math.min(oldest, Math.max(m.time, m.printAt));
+					output(m);
+					n--;
+				}
+				printBatch();
+				if(n==ring.capacity()) return false;
+				count=ring.capacity()-n;
+				printDropSummary(false);
+				printLatencySummary(false);
+			}
+			flushLogOuts();
+			onFlushed(start, oldest, count);
+			return true;
+		}
 		if(msgIndex>0) {
+			long start=System.nanoTime();
 			Msg[] p_msgs;
 			int p_msgIndex;
 			synchronized(flushLock) {
@@ -205,46 +888,107 @@ public class Logger implements ILogger{
 					msgIndex=0;
 				}
 				for(int i=0; i<p_msgIndex; i++) {
-					output(p_msgs[i]);
-				}
-			}
-			int i=0;
-			while(logOuts.size()>i) {
-				try {
-					logOuts.get(i++).flush();
-				}catch(Exception e) {
-					reportInternalError("log flush error", e); // TODO skip if many errors				
+					Msg m=p_msgs[i];
+					oldest=Math.min(oldest, Math.max(m.time, m.printAt));
+					output(m);
 				}
+				count=p_msgIndex;
+				printBatch();
+				printDropSummary(false);
+				printLatencySummary(false);
 			}
+			flushLogOuts();
+			onFlushed(start, oldest, count);
 			return true;
 		}
 		return false;
 	}
 
+	/**
+	 * @return true if the message buffer is more than half full (log() asks the flusher to flush)
+	 */
+	private boolean isFlushNeeded() {
+		if(arena!=null) return arena.size()*2>arena.capacity();
+		if(ring!=null) return ring.size()*2>ring.capacity();
+		return msgIndex*2>MSG_MAX;
+	}
+
+	/**
+	 * Updates the flush statistics after the outputs are flushed
+	 * @param start - flush start (nanoTime)
+	 * @param oldest - the oldest message time (or deferred print time) of the batch
+	 * @param count - number of messages flushed
+	 */
+	private void onFlushed(long start, long oldest, int count) {
+		long nanos=System.nanoTime()-start;
+		flushCount.increment();
+		flushNanos.add(nanos);
+		flushLatency.record(nanos);
+		if(nanos>maxFlushNanos.get()) maxFlushNanos.accumulateAndGet(nanos, Math::max);
+		if(flushWait==FLUSH_WAIT_ADAPTIVE) pacer.record(System.currentTimeMillis()-oldest, count);
+	}
+
+	/**
+	 * @param strategy - FLUSH_WAIT_* (case insensitive)
+	 */
+	public void setFlushWait(String strategy) {
+		for(String w: new String[] {FLUSH_WAIT_PARK, FLUSH_WAIT_TIMED_PARK, FLUSH_WAIT_YIELD, FLUSH_WAIT_SPIN, FLUSH_WAIT_ADAPTIVE}) {
+			if(w.equalsIgnoreCase(strategy)) {
+				flushWait=w;
+				if(LF!=null) LF.askFlush();
+				return;
+			}
+		}
+		throw new IllegalArgumentException("Unknown flush wait strategy: "+strategy);
+	}
+
+	public String getFlushWait() {
+		return flushWait;
+	}
+
+	/**
+	 * @return p99 time (millis) from log() to the outputs flush measured by FLUSH_WAIT_ADAPTIVE strategy, -1 if not measured
+	 */
+	public long getFlushLatencyP99() {
+		return pacer.getP99Millis();
+	}
+
+	private void flushLogOuts() {
+		int i=0;
+		while(logOuts.size()>i) {
+			try {
+				logOuts.get(i++).flush();
+			}catch(Exception e) {
+				reportInternalError("log flush error", e); // TODO skip if many errors				
+			}
+		}
+	}
+
 	protected boolean printDeferred(boolean isForce) {
-		if(msgQueue.size()>0) {
-			synchronized(msgQueue) {
-				long time=isForce?Long.MAX_VALUE:System.currentTimeMillis();
-				Msg m;
-				int i=0;
-				while(i<msgQueue.size()) {
-					m=msgQueue.get(i);
-					if(m.printAt<=time) {
-						synchronized(logLock) {
-							if(msgIndex<MSG_MAX) {
-								msgs[msgIndex++]=m;
-								msgQueue.remove(i);
-							}else return false;
-						}
-					}else i++;
+		deferWheel.expire(isForce?Long.MAX_VALUE:System.currentTimeMillis());
+		Msg m;
+		while((m=deferWheel.pollReady())!=null) {
+			if(arena!=null) {
+				if(arena.offer(m)) continue;
+			}else if(ring!=null) {
+				if(ring.offer(m)) continue;
+			}else {
+				synchronized(logLock) {
+					if(msgIndex<MSG_MAX) {
+						msgs[msgIndex++]=m;
+						continue;
+					}
 				}
 			}
+			deferWheel.unpollReady(m);
+			return false;
 		}
 		return true;
 	}
 
 	@Override
 	public void reportInternalError(String text, Exception ex) {
+		internalErrors.increment();
 		log(INTERNAL_PREFIX, Log.getExceptionText(text,  ex, true), ILog.ERROR, null, true, false, 0);		
 	}
 
@@ -266,6 +1010,21 @@ public class Logger implements ILogger{
 		return msgFormatter;
 	}
 
+	/**
+	 * @return the outputs with their own print threads (empty if LOGGER_ASYNC_OUTS is not set)
+	 */
+	public AsyncLogOut[] getAsyncLogOuts() {
+		synchronized(logOuts) {
+			if(asyncCapacity==0) return new AsyncLogOut[0];
+			return logOuts.toArray(new AsyncLogOut[logOuts.size()]);
+		}
+	}
+
+	/**
+	 * Adds the message (and the date message before it if needed) to the batch printed by the outputs when
+	 * the flusher has drained the buffer (or MSG_MAX messages). Called for each flushed message holding flushLock
+	 * @param m
+	 */
 	protected void output(Msg m) {
 		if(m!=null) {
 			Msg tm;
@@ -282,13 +1041,16 @@ public class Logger implements ILogger{
 						tm.level=ILog.QUIET;
 						tm.isFile=true;
 						tm.isScreen=nextDatePrintTime!=0l; // do not log to screen for the 1st time
-						output1(tm);
-					}
+						addToBatch(tm);
+					}else recycle(tm);
 				}
 				nextDatePrintTime=m.time+DATE_PRINT_INTERVAL;
 			}
+			long waitNanos=producerWaitNanos.sum()-reportedWaitNanos;
+			appWaitMillis=waitNanos/1000000;
 			if(appWaitMillis>=appWaitMillisBarrier) {
 				long tTime=appWaitMillis;
+				reportedWaitNanos+=waitNanos;
 				appWaitMillis=0;
 				if(appWaitMillisBarrier<60000) {
 					appWaitMillisBarrier=appWaitMillisBarrier*3/2;
@@ -299,16 +1061,61 @@ public class Logger implements ILogger{
 				tm.prefix=INTERNAL_PREFIX;
 				tm.level=ILog.WARN;
 				tm.isScreen=tm.isFile=true;
-				StringBuilder sb=new StringBuilder(40);
 				tm.pattern="logger delayed: "+tTime+" ms";
-				appendText(tm, sb, ILogger.FULL);
-				output1(tm);
+				addToBatch(tm);
 			}
-			output1(m);
+			addToBatch(m);
 		}
 	}
 
+	private void addToBatch(Msg m) {
+		if(batchSize==batch.length) batch=Arrays.copyOf(batch, batchSize*2);
+		batch[batchSize++]=m;
+	}
+
+	/**
+	 * Prints the batch to all the outputs (ILogOut.printBatch) and recycles the messages. Called holding flushLock
+	 */
+	private void printBatch() {
+		int n=batchSize;
+		if(n==0) return;
+		// detach the batch: an output can log, and if the buffer is full, this thread flushes (and prints) the next batch
+		Msg[] b=batch;
+		batch=spareBatch!=null?spareBatch:new Msg[MSG_MAX*2];
+		spareBatch=null;
+		batchSize=0;
+		for(int i=0;i<n;i++) {
+			printedByLevel[b[i].level&0xff]++;
+		}
+		if(asyncCapacity>0) {
+			for(int i=0;i<n;i++) {
+				prepareAsync(b[i]);
+			}
+		}
+		int k=0;
+		while(logOuts.size()>k) {
+			try {
+				logOuts.get(k++).printBatch(b, 0, n);
+			}catch(Exception e) {
+				reportInternalError("log error", e); // TODO skip if many errors				
+			}
+		}
+		for(int i=0;i<n;i++) {
+			recycle(b[i]);
+			b[i]=null;
+		}
+		spareBatch=b;
+	}
+
+	private void prepareAsync(Msg m) {
+		int n=logOuts.size();
+		// the outputs can read the message concurrently, and makeText changes it
+		if(n>1) msgFormatter.makeText(m);
+		if(m.isRecyclable) AsyncLogOut.PENDING_OUTS.set(m, n+1);
+	}
+
 	protected void output1(Msg m) {
+		if(asyncCapacity>0) prepareAsync(m);
 		int i=0;
 		while(logOuts.size()>i) {
 			try {
@@ -322,6 +1129,7 @@ public class Logger implements ILogger{
 	@Override
 	public void close() {
 		appWaitMillisBarrier=1000;
+		appWaitMillis=(producerWaitNanos.sum()-reportedWaitNanos)/1000000;
 		if(appWaitMillis>1000) {
 			log(INTERNAL_PREFIX, "Finished with appWaits "+appWaitMillis, ILog.WARN, null, true, false, 0);
 		}
@@ -329,12 +1137,21 @@ public class Logger implements ILogger{
 		synchronized(flushLock) {
 			// wait flush by flusher finished
 		}
+		expireDedup(true);
 		for(int i=0;i<20;i++) {
 			flush();
 			if(printDeferred(true))break;
 		}
 		flush();
+		synchronized(flushLock) {
+			printDropSummary(true);
+			printLatencySummary(true);
+		}
 		isClose=true;
+		if(jmx!=null) {
+			LoggerJmx.unregister(jmx);
+			jmx=null;
+		}
 		int i=logOuts.size();
 		while(i-->0) {
 			try {
@@ -368,19 +1185,49 @@ public class Logger implements ILogger{
 
 	@Override
 	public void setProperty(String name, String value) {
+		String oldVal;
 		synchronized(props) {
-			Object oldVal=props.get(name);
+			oldVal=props.get(name);
 			if(oldVal==null) {
 				if(value==null) return;
 			}else if(oldVal.equals(value)) return;
 			props.put(name, value);
 		}
-		if(ILog.LOG_TIME_MILLIS.equalsIgnoreCase(name)) {
-			msgFormatter.setLogMillis("true".equalsIgnoreCase(value));
-		}else if(ILog.ALLOW_ANSI_CODES.equalsIgnoreCase(name)) {
-			if(value!=null) {
-				msgFormatter.setAnsiColor(Boolean.parseBoolean(value.toString()));
+		try {
+			if(ILog.LOG_TIME_MILLIS.equalsIgnoreCase(name)) {
+				msgFormatter.setLogMillis("true".equalsIgnoreCase(value));
+			}else if(MAX_DEFERRED.equalsIgnoreCase(name)) {
+				if(value!=null) {
+					deferWheel.setCapacity(Integer.parseInt(value.trim()));
+					isFullQueueWarnPrinted=false;
+				}
+			}else if(BACK_PRESSURE.equalsIgnoreCase(name)) {
+				if(value!=null) setBackPressure(value);
+			}else if(BACK_PRESSURE_LEVEL.equalsIgnoreCase(name)) {
+				if(value!=null) backPressureLevel=getLevelByName(value);
+			}else if(FLUSH_WAIT.equalsIgnoreCase(name)) {
+				if(value!=null) setFlushWait(value);
+			}else if(FLUSH_LATENCY.equalsIgnoreCase(name)) {
+				if(value!=null) pacer.setTargetMillis(Long.parseLong(value.trim()));
+			}else if(LATENCY_SUMMARY.equalsIgnoreCase(name)) {
+				if(value!=null) setLatencySummary(Long.parseLong(value.trim()));
+			}else if(DEDUP_WINDOW.equalsIgnoreCase(name)) {
+				if(value!=null) dedup.setWindowMillis(Long.parseLong(value.trim()));
+			}else if(DEDUP_BY_TEXT.equalsIgnoreCase(name)) {
+				if(value!=null) dedup.setByText(Boolean.parseBoolean(value));
+			}else if(ILog.ALLOW_ANSI_CODES.equalsIgnoreCase(name)) {
+				if(value!=null) {
+					msgFormatter.setAnsiColor(Boolean.parseBoolean(value.toString()));
+				}
+			}
+		}catch(IllegalArgumentException e) {
+			// NumberFormatException included
+			synchronized(props) {
+				if(oldVal==null) props.remove(name);
+				else props.put(name, oldVal);
 			}
+			reportInternalError("Bad logger property "+name+"="+value+", the old value is kept", e);
+			return;
 		}
 		flush();
 		int i=0;
@@ -395,6 +1242,30 @@ public class Logger implements ILogger{
 		if(ILog.ALLOW_ANSI_CODES.equalsIgnoreCase(name)) {
 			return Boolean.toString(msgFormatter.isAnsiColor());
 		}
+		if(MAX_DEFERRED.equalsIgnoreCase(name)) {
+			return String.valueOf(deferWheel.getCapacity());
+		}
+		if(BACK_PRESSURE.equalsIgnoreCase(name)) {
+			return backPressure;
+		}
+		if(BACK_PRESSURE_LEVEL.equalsIgnoreCase(name)) {
+			return getLevelName(backPressureLevel);
+		}
+		if(FLUSH_WAIT.equalsIgnoreCase(name)) {
+			return flushWait;
+		}
+		if(FLUSH_LATENCY.equalsIgnoreCase(name)) {
+			return String.valueOf(pacer.getTargetMillis());
+		}
+		if(LATENCY_SUMMARY.equalsIgnoreCase(name)) {
+			return String.valueOf(latencySummaryMillis/1000);
+		}
+		if(DEDUP_WINDOW.equalsIgnoreCase(name)) {
+			return String.valueOf(dedup.getWindowMillis());
+		}
+		if(DEDUP_BY_TEXT.equalsIgnoreCase(name)) {
+			return String.valueOf(dedup.isByText());
+		}
 		String val;
 		int i=0;
 		while(logOuts.size()>i) {
@@ -455,41 +1326,204 @@ public class Logger implements ILogger{
 	private class LogFlusher extends Thread{
 
 		private volatile boolean isAbort;
+		private volatile boolean isParked;
 
 
 		public LogFlusher() {
 		}
 
 		public void askFlush() {
-			interrupt();
+			// unpark is not cheap, and not needed while the flusher works
+			if(isParked) LockSupport.unpark(this);
 		}
 
 		public void abort() {
 			isAbort=true;
-			askFlush();
+			LockSupport.unpark(this);
 		}
 
 		@Override
 		public void run() {
 			setName("Log Flusher");
-			long pauseMillis=MAX_FLUSH_INTERVAL;
 			while(!isAbort) {
+				boolean isFlushed=false;
 				try {
+					expireDedup(false);
 					printDeferred(false);
-					if(flush()) {
-						pauseMillis=MIN_FLUSH_INTERVAL;
-					}else pauseMillis=MAX_FLUSH_INTERVAL;
+					isFlushed=flush();
 				}catch(Exception e) {
 					e.printStackTrace();
 				}
-				try{
-					Thread.sleep(pauseMillis);
-				}catch(InterruptedException e){
+				String wait=flushWait;
+				if(wait==FLUSH_WAIT_SPIN) {
+					if(!isFlushed) Thread.onSpinWait();
+				}else if(wait==FLUSH_WAIT_YIELD) {
+					if(!isFlushed) Thread.yield();
+				}else {
+					long pauseNanos;
+					if(wait==FLUSH_WAIT_TIMED_PARK) pauseNanos=pacer.getTargetMillis()*1000000;
+					else if(wait==FLUSH_WAIT_ADAPTIVE) pauseNanos=pacer.getPauseNanos();
+					else pauseNanos=(isFlushed?MIN_FLUSH_INTERVAL:MAX_FLUSH_INTERVAL)*1000000;
+					isParked=true;
+					// recheck after isParked is set: log() could miss it
+					if(!isAbort && !isFlushNeeded()) LockSupport.parkNanos(this, pauseNanos);
+					isParked=false;
 				}
 			}
 		}
 	}
 
+	/**
+	 * @param counts - count by level (0..USE_SAME_LEVEL)
+	 * @return not zero counts summed by level name, the most important levels first
+	 */
+	Map<String, Long> countByLevelName(IntToLongFunction counts) {
+		LinkedHashMap<String, Long> map=new LinkedHashMap<>();
+		for(int lev=0;lev<=ILog.USE_SAME_LEVEL;lev++) {
+			long n=counts.applyAsLong(lev);
+			if(n!=0) map.merge(getLevelName((byte) lev), n, Long::sum);
+		}
+		return map;
+	}
+
+	/**
+	 * @param level
+	 * @return number of the messages of the level queued for printing (including deferred)
+	 */
+	public long getLoggedCount(byte level) {
+		LongAdder counter=loggedByLevel.get(level&0xff);
+		return counter==null?0:counter.sum();
+	}
+
+	/**
+	 * @param level
+	 * @return number of the messages of the level printed to the outputs (including logger messages)
+	 */
+	public long getPrintedCount(byte level) {
+		return printedByLevel[level&0xff];
+	}
+
+	/**
+	 * @return number of the messages in the buffer
+	 */
+	public int getBufferSize() {
+		if(arena!=null) return arena.size();
+		if(ring!=null) return ring.size();
+		return msgIndex;
+	}
+
+	public int getBufferCapacity() {
+		if(arena!=null) return arena.capacity();
+		return ring!=null?ring.capacity():MSG_MAX;
+	}
+
+	/**
+	 * @return number of the deferred messages waiting for the print time
+	 */
+	public int getDeferredSize() {
+		return deferWheel.size();
+	}
+
+	public long getFlushCount() {
+		return flushCount.sum();
+	}
+
+	/**
+	 * @return total time of the flushes (printing and outputs flush)
+	 */
+	public long getFlushNanos() {
+		return flushNanos.sum();
+	}
+
+	public long getMaxFlushNanos() {
+		return maxFlushNanos.get();
+	}
+
+	/**
+	 * @return number of the errors reported by reportInternalError()
+	 */
+	public long getInternalErrorCount() {
+		return internalErrors.sum();
+	}
+
+	/**
+	 * @return total time the logging threads waited in log() (buffer full)
+	 */
+	public long getProducerWaitNanos() {
+		return producerWaitNanos.sum();
+	}
+
+	/**
+	 * @return number of the repeated messages not printed (see DEDUP_WINDOW)
+	 */
+	public long getSuppressedCount() {
+		return suppressedCount.sum();
+	}
+
+	/**
+	 * @param millis - repeated message suppression window, 0 - disabled (see DEDUP_WINDOW)
+	 */
+	public void setDedupWindow(long millis) {
+		dedup.setWindowMillis(millis);
+	}
+
+	/**
+	 * @return latency of the log() calls queuing the messages for the flusher (including the wait for the full buffer)
+	 */
+	public LatencyHistogram getEnqueueLatency() {
+		return enqueueLatency;
+	}
+
+	/**
+	 * @return latency of the flushes (printing of the drained messages and outputs flush)
+	 */
+	public LatencyHistogram getFlushLatency() {
+		return flushLatency;
+	}
+
+	/**
+	 * @param seconds - interval of the latency summary printed to the file, 0 - not printed (see LATENCY_SUMMARY)
+	 */
+	public void setLatencySummary(long seconds) {
+		latencySummaryMillis=Math.max(0, seconds)*1000;
+	}
+
+	/**
+	 * @param isKeep - true: the messages printed to the file keep the pattern and the arguments when their text is made
+	 * (for the file outputs printing them separately, see JsonLogOut). The mutable arguments of these messages
+	 * are converted to text by log() one by one, the lazy ones are replaced with their values
+	 */
+	public void setKeepFileArgs(boolean isKeep) {
+		isKeepFileArgs=isKeep;
+	}
+
+	public boolean isKeepFileArgs() {
+		return isKeepFileArgs;
+	}
+
+	/**
+	 * @return outputs (AsyncLogOut wrappers included)
+	 */
+	public ILogOut[] getLogOuts() {
+		synchronized(logOuts) {
+			return logOuts.toArray(new ILogOut[logOuts.size()]);
+		}
+	}
+
+	/**
+	 * Registers the Log created without parent, its levels can be changed through JMX
+	 * @param log
+	 */
+	void addRootLog(Log log) {
+		rootLogs.add(log);
+	}
+
+	Log[] getRootLogs() {
+		synchronized(rootLogs) {
+			return rootLogs.toArray(new Log[rootLogs.size()]);
+		}
+	}
+
 	@Override
 	public String ansi(byte level, boolean isBegin) {
 		return msgFormatter.ansi(level, isBegin);
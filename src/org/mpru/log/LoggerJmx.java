@@ -0,0 +1,234 @@
+package org.mpru.log;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * LoggerMXBean implementation, kept out of Logger so that java.management is loaded only if JMX is used
+ */
+final class LoggerJmx implements LoggerMXBean {
+
+	private static final AtomicInteger COUNTER=new AtomicInteger();
+
+	private final Logger logger;
+	private final ObjectName name;
+
+	private LoggerJmx(Logger logger, ObjectName name) {
+		this.logger=logger;
+		this.name=name;
+	}
+
+	/**
+	 * @param logger
+	 * @return the registered bean (to be passed to unregister())
+	 * @throws JMException
+	 */
+	static Object register(Logger logger) throws JMException {
+		ObjectName name=new ObjectName("org.mpru.log:type=Logger,name=logger-"+COUNTER.incrementAndGet());
+		LoggerJmx bean=new LoggerJmx(logger, name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(bean, name);
+		return bean;
+	}
+
+	static void unregister(Object bean) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(((LoggerJmx) bean).name);
+		}catch(JMException ignore) {
+		}
+	}
+
+	@Override
+	public Map<String, Long> getLoggedCounts() {
+		return logger.countByLevelName(lev -> logger.getLoggedCount((byte) lev));
+	}
+
+	@Override
+	public Map<String, Long> getPrintedCounts() {
+		return logger.countByLevelName(lev -> logger.getPrintedCount((byte) lev));
+	}
+
+	@Override
+	public Map<String, Long> getDroppedCounts() {
+		return logger.countByLevelName(lev -> logger.getDroppedCount((byte) lev));
+	}
+
+	@Override
+	public Map<String, Long> getSampledOutCounts() {
+		return logger.countByLevelName(lev -> logger.getSampledOutCount((byte) lev));
+	}
+
+	@Override
+	public int getBufferSize() {
+		return logger.getBufferSize();
+	}
+
+	@Override
+	public int getBufferCapacity() {
+		return logger.getBufferCapacity();
+	}
+
+	@Override
+	public int getDeferredSize() {
+		return logger.getDeferredSize();
+	}
+
+	@Override
+	public long getFlushCount() {
+		return logger.getFlushCount();
+	}
+
+	@Override
+	public long getFlushTimeMillis() {
+		return logger.getFlushNanos()/1000000;
+	}
+
+	@Override
+	public long getMaxFlushMillis() {
+		return logger.getMaxFlushNanos()/1000000;
+	}
+
+	@Override
+	public long getFlushLatencyP99Millis() {
+		return logger.getFlushLatencyP99();
+	}
+
+	@Override
+	public long getInternalErrorCount() {
+		return logger.getInternalErrorCount();
+	}
+
+	@Override
+	public long getSuppressedCount() {
+		return logger.getSuppressedCount();
+	}
+
+	@Override
+	public long getProducerWaitMillis() {
+		return logger.getProducerWaitNanos()/1000000;
+	}
+
+	@Override
+	public Map<String, Long> getEnqueueLatencyNanos() {
+		return getPercentiles(logger.getEnqueueLatency());
+	}
+
+	@Override
+	public Map<String, Long> getFlushLatencyNanos() {
+		return getPercentiles(logger.getFlushLatency());
+	}
+
+	private static Map<String, Long> getPercentiles(LatencyHistogram histogram) {
+		LatencyHistogram.Snapshot s=histogram.snapshot();
+		LinkedHashMap<String, Long> map=new LinkedHashMap<>();
+		map.put("count", s.getCount());
+		map.put("p50", s.getPercentile(50));
+		map.put("p99", s.getPercentile(99));
+		map.put("p99.9", s.getPercentile(99.9));
+		map.put("max", s.getMax());
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getBytesWritten() {
+		return getOutProperty(FileLogOut.BYTES_WRITTEN);
+	}
+
+	@Override
+	public Map<String, Long> getRotations() {
+		return getOutProperty(FileLogOut.ROTATIONS);
+	}
+
+	private Map<String, Long> getOutProperty(String property) {
+		LinkedHashMap<String, Long> map=new LinkedHashMap<>();
+		ILogOut[] outs=logger.getLogOuts();
+		for(int i=0;i<outs.length;i++) {
+			String value=outs[i].getProperty(property);
+			if(value!=null) map.put(getOutName(outs[i], i), Long.valueOf(value));
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getAsyncBacklogs() {
+		LinkedHashMap<String, Long> map=new LinkedHashMap<>();
+		ILogOut[] outs=logger.getLogOuts();
+		for(int i=0;i<outs.length;i++) {
+			if(outs[i] instanceof AsyncLogOut) map.put(getOutName(outs[i], i), (long) ((AsyncLogOut) outs[i]).getBacklog());
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getAsyncDroppedCounts() {
+		LinkedHashMap<String, Long> map=new LinkedHashMap<>();
+		ILogOut[] outs=logger.getLogOuts();
+		for(int i=0;i<outs.length;i++) {
+			if(outs[i] instanceof AsyncLogOut) map.put(getOutName(outs[i], i), ((AsyncLogOut) outs[i]).getDroppedCount());
+		}
+		return map;
+	}
+
+	private static String getOutName(ILogOut out, int idx) {
+		if(out instanceof AsyncLogOut) out=((AsyncLogOut) out).getLogOut();
+		return idx+":"+out.getClass().getSimpleName();
+	}
+
+	@Override
+	public String getLevel() {
+		return getMaxLevel(false);
+	}
+
+	@Override
+	public void setLevel(String level) {
+		byte lev=logger.getLevelByName(level);
+		for(Log log: logger.getRootLogs()) {
+			log.setLevel(lev);
+		}
+	}
+
+	@Override
+	public String getFileLevel() {
+		return getMaxLevel(true);
+	}
+
+	@Override
+	public void setFileLevel(String level) {
+		byte lev=logger.getLevelByName(level);
+		for(Log log: logger.getRootLogs()) {
+			log.setFileLevel(lev);
+		}
+	}
+
+	private String getMaxLevel(boolean isFile) {
+		int max=-1;
+		for(Log log: logger.getRootLogs()) {
+			max=Math.max(max, isFile?log.getFileLevel():log.getLevel());
+		}
+		return max<0?null:logger.getLevelName((byte) max);
+	}
+
+	@Override
+	public String getBackPressure() {
+		return logger.getBackPressure();
+	}
+
+	@Override
+	public void setBackPressure(String policy) {
+		logger.setBackPressure(policy);
+	}
+
+	@Override
+	public String getFlushWait() {
+		return logger.getFlushWait();
+	}
+
+	@Override
+	public void setFlushWait(String strategy) {
+		logger.setFlushWait(strategy);
+	}
+}
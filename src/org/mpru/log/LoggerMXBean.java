@@ -0,0 +1,113 @@
+package org.mpru.log;
+
+import java.util.Map;
+
+/**
+ * Logger statistics and settings registered in the platform MBean server as
+ * org.mpru.log:type=Logger,name=logger-N (unless org.mpru.log.jmx=false).
+ * Counts by level are keyed by the level name (ERROR, WARN, INFO, ...), counts by output by "N:ClassName"
+ */
+public interface LoggerMXBean {
+
+	/**
+	 * @return messages queued for printing (including deferred) by level
+	 */
+	Map<String, Long> getLoggedCounts();
+
+	/**
+	 * @return messages printed to the outputs by level (including the logger own messages)
+	 */
+	Map<String, Long> getPrintedCounts();
+
+	/**
+	 * @return messages dropped by the back pressure policy by level
+	 */
+	Map<String, Long> getDroppedCounts();
+
+	/**
+	 * @return messages not printed by the samplers by level
+	 */
+	Map<String, Long> getSampledOutCounts();
+
+	int getBufferSize();
+
+	int getBufferCapacity();
+
+	int getDeferredSize();
+
+	long getFlushCount();
+
+	long getFlushTimeMillis();
+
+	long getMaxFlushMillis();
+
+	/**
+	 * @return p99 time from log() to the outputs flush, measured with the adaptive flush wait strategy only (-1 otherwise)
+	 */
+	long getFlushLatencyP99Millis();
+
+	long getInternalErrorCount();
+
+	/**
+	 * @return repeated messages not printed (counted in the "repeated N times" summaries)
+	 */
+	long getSuppressedCount();
+
+	/**
+	 * @return total time the application threads waited for the full buffer
+	 */
+	long getProducerWaitMillis();
+
+	/**
+	 * @return percentiles of the log() call latency (nanos) keyed by count, p50, p99, p99.9, max
+	 */
+	Map<String, Long> getEnqueueLatencyNanos();
+
+	/**
+	 * @return percentiles of the flush latency (nanos) keyed by count, p50, p99, p99.9, max
+	 */
+	Map<String, Long> getFlushLatencyNanos();
+
+	/**
+	 * @return bytes written by the file outputs
+	 */
+	Map<String, Long> getBytesWritten();
+
+	/**
+	 * @return log file rotations by the file outputs
+	 */
+	Map<String, Long> getRotations();
+
+	/**
+	 * @return messages waiting in the queues of the outputs printing in their own threads (org.mpru.log.asyncOuts)
+	 */
+	Map<String, Long> getAsyncBacklogs();
+
+	/**
+	 * @return messages dropped by the outputs printing in their own threads
+	 */
+	Map<String, Long> getAsyncDroppedCounts();
+
+	/**
+	 * @return the most detailed screen level of the Logs created without parent
+	 */
+	String getLevel();
+
+	/**
+	 * Sets the screen level of all the Logs created without parent (their children use the parent level if it is more detailed)
+	 * @param level - level name
+	 */
+	void setLevel(String level);
+
+	String getFileLevel();
+
+	void setFileLevel(String level);
+
+	String getBackPressure();
+
+	void setBackPressure(String policy);
+
+	String getFlushWait();
+
+	void setFlushWait(String strategy);
+}
@@ -0,0 +1,165 @@
+package org.mpru.log;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+
+/**
+ * File output appending to the memory-mapped region of the log file, so flush is just a memory copy without write syscall.
+ * The file is extended by MAP_CHUNK_SIZE bytes chunks and truncated to the real length on close (and rotation).
+ * If the process was killed, the zero bytes of the last chunk are cut when the file is reopened.
+ * Properties, file rotation and .loc locking are the same as FileLogOut has. To use it instead of FileLogOut
+ * set system property org.mpru.log.FileOut=org.mpru.log.MappedFileLogOut
+ */
+public class MappedFileLogOut extends FileLogOut {
+
+	public static final String MAP_CHUNK_SIZE = "mapChunkSize";
+
+	private static final MethodHandle INVOKE_CLEANER=findCleaner();
+
+	private long chunkSize=16*1024*1024;
+	private String path;
+	private FileChannel channel;
+	private MappedByteBuffer mapped;
+
+	public MappedFileLogOut() {
+		isChannelMode=true;
+	}
+
+	private static MethodHandle findCleaner() {
+		// unmapping is needed to truncate the file on Windows. If not accessible, the buffer is unmapped by GC
+		try {
+			Class<?> unsafeClass=Class.forName("sun.misc.Unsafe");
+			Field f=unsafeClass.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			return MethodHandles.lookup().findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+					.bindTo(f.get(null));
+		}catch(Throwable e) {
+			return null;
+		}
+	}
+
+	private static void unmap(MappedByteBuffer buf) {
+		if(buf!=null && INVOKE_CLEANER!=null) {
+			try {
+				INVOKE_CLEANER.invokeExact((ByteBuffer) buf);
+			}catch(Throwable ignore) {
+			}
+		}
+	}
+
+	@Override
+	protected void openOutput(String path) throws IOException {
+		FileChannel channel=new RandomAccessFile(path, "rw").getChannel();
+		try {
+			channel.truncate(getRealLength(channel));
+			channel.position(channel.size());
+			this.path=path;
+			this.channel=channel;
+			openChannel(channel);
+			map();
+		}catch(IOException|RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param channel
+	 * @return the file length without zero bytes left at the end of the last chunk
+	 * @throws IOException
+	 */
+	private long getRealLength(FileChannel channel) throws IOException {
+		// the text log has no zero bytes, the chunk size could be different when the file was written
+		long size=channel.size();
+		while(size>0) {
+			long from=Math.max(0, size-chunkSize);
+			MappedByteBuffer tail=channel.map(FileChannel.MapMode.READ_ONLY, from, size-from);
+			try {
+				int i=tail.limit();
+				while(i>0 && tail.get(i-1)==0) i--;
+				if(i>0) return from+i;
+			}finally {
+				unmap(tail);
+			}
+			size=from;
+		}
+		return 0;
+	}
+
+	private void map() throws IOException {
+		unmap(mapped);
+		mapped=null;
+		// FileChannel is closed when the thread is interrupted, see FileLogOut.writeBuffer
+		boolean isInterrupted=Thread.interrupted();
+		try {
+			while(true) {
+				try {
+					mapped=channel.map(FileChannel.MapMode.READ_WRITE, fileLength, chunkSize);
+					return;
+				}catch(ClosedByInterruptException e) {
+					isInterrupted|=Thread.interrupted();
+					channel=new RandomAccessFile(path, "rw").getChannel();
+				}
+			}
+		}finally {
+			if(isInterrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	protected void writeBuffer(ByteBuffer buf) throws IOException {
+		while(buf.hasRemaining()) {
+			if(!mapped.hasRemaining()) map();
+			int n=Math.min(buf.remaining(), mapped.remaining());
+			int limit=buf.limit();
+			buf.limit(buf.position()+n);
+			mapped.put(buf);
+			buf.limit(limit);
+			fileLength+=n;
+		}
+	}
+
+	@Override
+	protected void closeChannel(FileChannel ignore) throws IOException {
+		unmap(mapped);
+		mapped=null;
+		FileChannel channel=this.channel;
+		this.channel=null;
+		boolean isInterrupted=Thread.interrupted();
+		try {
+			channel.truncate(fileLength);
+		}finally {
+			channel.close();
+			if(isInterrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public boolean setProperty(String name, Object value) {
+		if(FILE_MODE.equals(name)) {
+			return false; // always mapped
+		}
+		if(MAP_CHUNK_SIZE.equals(name)) {
+			if(value instanceof Number) chunkSize=((Number) value).longValue();
+			else if(value!=null) chunkSize=Long.parseLong(value.toString());
+			return true;
+		}
+		return super.setProperty(name, value);
+	}
+
+	@Override
+	public String getProperty(String name) {
+		if(MAP_CHUNK_SIZE.equals(name)) {
+			return String.valueOf(chunkSize);
+		}
+		return super.getProperty(name);
+	}
+}
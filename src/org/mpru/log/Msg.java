@@ -15,7 +15,104 @@ public class Msg implements ICancel{
 	public String prefix;
 	
 	public String cachedText;
+
+	// kinds of arguments stored by ILog.infoNum() and so on (see ILog.logPrimitive) instead of args, 2 bits per argument
+	public static final int ARG_LONG=1;
+	public static final int ARG_DOUBLE=2;
+	public static final int ARG_OBJECT=3;
+
+	/**
+	 * ARG_* kind of argument i is stored in bits 2*i, 2*i+1. 0 if args are used (or no arguments)
+	 */
+	public int argKinds;
+	/**
+	 * ARG_LONG values or Double.doubleToRawLongBits of ARG_DOUBLE values of the arguments 0..2
+	 */
+	public long arg0, arg1, arg2;
+	/**
+	 * the value of the (only) ARG_OBJECT argument
+	 */
+	public Object argObj;
+
+	// true when the logger may return the message to its pool after printing (no ICancel handle given out)
+	boolean isRecyclable;
+
+	// true when the pattern and the arguments are kept after the text is made (see Logger.setKeepFileArgs)
+	boolean isKeepArgs;
+
+	// number of AsyncLogOut queues (+1 for the logger) still referring to the recyclable message
+	volatile int pendingOuts;
+
+	// DeferWheel links and state (guarded by the wheel)
+	DeferWheel deferWheel; // the wheel the message was scheduled in
+	Msg deferNext;
+	Msg deferPrev;
+	int deferBucket;
+	byte deferState;
 	
+	void clear() {
+		time=0;
+		printAt=0;
+		isFile=false;
+		isScreen=false;
+		level=0;
+		pattern=null;
+		args=null;
+		prefix=null;
+		cachedText=null;
+		argKinds=0;
+		argObj=null;
+		isRecyclable=false;
+		isKeepArgs=false;
+		pendingOuts=0;
+		deferWheel=null;
+		deferNext=deferPrev=null;
+		deferState=0;
+	}
+
+	/**
+	 * @return true if the message has arguments (either args or primitive ones)
+	 */
+	public boolean hasArgs() {
+		return args!=null || argKinds!=0;
+	}
+
+	/**
+	 * @return number of arguments (either args or primitive ones)
+	 */
+	public int getArgCount() {
+		if(args!=null) return args.length;
+		return (33-Integer.numberOfLeadingZeros(argKinds))>>1;
+	}
+
+	/**
+	 * Returns argument value, boxing the primitive one
+	 * @param idx - argument index, 0..getArgCount()-1
+	 * @return argument value
+	 */
+	public Object getArg(int idx) {
+		if(args!=null) return args[idx];
+		return toArg(argKinds, idx, idx==0?arg0:idx==1?arg1:arg2, argObj);
+	}
+
+	static Object toArg(int argKinds, int idx, long value, Object argObj) {
+		switch((argKinds>>>(idx*2))&3) {
+			case ARG_LONG: return value;
+			case ARG_DOUBLE: return Double.longBitsToDouble(value);
+			case ARG_OBJECT: return argObj;
+		}
+		return null;
+	}
+
+	static Object[] toArgs(int argKinds, long arg0, long arg1, long arg2, Object argObj) {
+		int sz=(33-Integer.numberOfLeadingZeros(argKinds))>>1;
+		Object[] args=new Object[sz];
+		for(int i=0;i<sz;i++) {
+			args[i]=toArg(argKinds, i, i==0?arg0:i==1?arg1:arg2, argObj);
+		}
+		return args;
+	}
+
 	public boolean isSkipHeader() {
 		return (level&1)!=0 || (level<=ILog.INFO && level>ILog.WARN);
 	}
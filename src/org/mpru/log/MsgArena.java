@@ -0,0 +1,594 @@
+package org.mpru.log;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Lock-free multi-producer/single-consumer ring of serialized messages in direct (off-heap) memory.
+ * log() callers encode the message into the arena (arguments other than primitives, String, Character, Boolean
+ * and Date are converted to text by MsgFormatter at once), so queued messages do not keep heap objects.
+ * The consumer (Logger holding flushLock) decodes them into Msg objects just before printing.
+ * <p>
+ * Producers claim space by CAS on the tail byte position and publish the record by storing its position (stamp)
+ * into the record header with release semantics; the consumer takes records with the stamp equal to its head position.
+ * Any aligned offset can be a record start in the next pass over the memory, so the consumer sets the stamp slots
+ * at all aligned offsets of the consumed space to NO_STAMP (never equal to a position) before moving its head:
+ * the data left from the previous pass is never taken for a record.
+ * Records are aligned to 16 bytes, the record not fitting before the memory end is preceded by a padding record.
+ * Record: stamp (8), length (4, negative for padding), level, flags, argument count (2), time (8), print time (8),
+ * prefix ref (4), pattern ref (4), inline prefix, inline pattern, text, arguments (tag and value).
+ * Prefixes and the patterns with argument placeholders are kept in the dictionary and referred by id. The dictionary
+ * is never cleared (the records in the arena refer to it), so it is bounded: MAX_DICTIONARY_SIZE strings up to
+ * MAX_DICTIONARY_STRING chars, other strings (and the patterns without placeholders, often made by concatenation) are inline.
+ * Strings are stored as (length&lt;&lt;1 | isLatin1) int and Latin-1 bytes or UTF-16 chars.
+ */
+final class MsgArena {
+
+	static final int ALIGN=16;
+	static final int MIN_CAPACITY=64*1024;
+	static final int MAX_DICTIONARY_SIZE=4096;
+	static final int MAX_DICTIONARY_STRING=200;
+
+	private static final int HEADER=40;
+	private static final long NO_STAMP=-1;
+	private static final int F_FILE=1;
+	private static final int F_SCREEN=2;
+	private static final int F_TEXT=4;
+	private static final int F_ARGS=8; // Msg.args (Object[])
+	private static final int F_PRIMITIVE=16; // Msg.argKinds
+	private static final int F_KEEP_ARGS=32; // Msg.isKeepArgs
+
+	private static final int REF_NONE=-1;
+	private static final int REF_INLINE=-2;
+
+	private static final byte A_NONE=0;
+	private static final byte A_NULL=1;
+	private static final byte A_LONG=2;
+	private static final byte A_DOUBLE=3;
+	private static final byte A_FLOAT=4;
+	private static final byte A_CHAR=5;
+	private static final byte A_TRUE=6;
+	private static final byte A_FALSE=7;
+	private static final byte A_DATE=8;
+	private static final byte A_STRING=9;
+	private static final byte A_TEXT=10; // argument converted to text
+
+	private static final VarHandle STAMP=MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static final VarHandle TAIL;
+	private static final VarHandle HEAD;
+	static {
+		try {
+			TAIL=MethodHandles.lookup().findVarHandle(MsgRing.Tail.class, "tail", long.class);
+			HEAD=MethodHandles.lookup().findVarHandle(MsgRing.Head.class, "head", long.class);
+		}catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final MsgRing.Cursors c=new MsgRing.Cursors();
+	private final ByteBuffer buf;
+	private final ByteBuffer readBuf; // consumer view for bulk reads
+	private final int capacity;
+	private final int mask;
+	private final int maxRecord;
+	private final MsgFormatter formatter;
+
+	private final ConcurrentHashMap<String, Integer> ids=new ConcurrentHashMap<>();
+	private volatile String[] dictionary=new String[256];
+	private volatile int dictionarySize; // written holding ids
+
+	private final ThreadLocal<Encoder> encoders=ThreadLocal.withInitial(Encoder::new);
+	private byte[] readBytes=new byte[256];
+	private char[] readChars=new char[256];
+
+	/**
+	 * @param minCapacity - bytes, rounded up to the power of 2 (not less than MIN_CAPACITY)
+	 * @param formatter - converts the arguments to text
+	 */
+	MsgArena(int minCapacity, MsgFormatter formatter) {
+		capacity=Integer.highestOneBit(Math.max(MIN_CAPACITY, minCapacity)-1)<<1;
+		buf=ByteBuffer.allocateDirect(capacity+ALIGN).alignedSlice(ALIGN).order(ByteOrder.nativeOrder());
+		readBuf=buf.duplicate().order(ByteOrder.nativeOrder());
+		mask=capacity-1;
+		maxRecord=capacity/4;
+		this.formatter=formatter;
+		clearStamps(0, capacity);
+	}
+
+	/**
+	 * @return capacity (bytes)
+	 */
+	int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return bytes taken by the queued messages
+	 */
+	int size() {
+		long size=c.tail-c.head;
+		return size<0?0:(int) size;
+	}
+
+	boolean isEmpty() {
+		return c.tail==c.head;
+	}
+
+	/**
+	 * Serializes the message if there is enough free space. Can be called by any thread.
+	 * The message itself is not referred by the arena (can be recycled at once)
+	 * @param m
+	 * @return false if the arena is full
+	 */
+	boolean offer(Msg m) {
+		Encoder e=encoders.get();
+		if(e.isBusy) e=new Encoder(); // logging from toString() of the argument
+		e.isBusy=true;
+		try {
+			int len=e.prepare(m);
+			int claimed=(len+ALIGN-1)&-ALIGN;
+			long pos;
+			while(true) {
+				long tail=c.tail;
+				int off=(int) tail&mask;
+				int pad=off+claimed>capacity?capacity-off:0;
+				if(tail+pad+claimed-c.head>capacity) return false;
+				if(TAIL.compareAndSet(c, tail, tail+pad+claimed)) {
+					if(pad>0) {
+						buf.putInt(off+8, -pad);
+						STAMP.setRelease(buf, off, tail);
+					}
+					pos=tail+pad;
+					break;
+				}
+			}
+			int off=(int) pos&mask;
+			e.write(m, off, len);
+			STAMP.setRelease(buf, off, pos);
+			return true;
+		}finally {
+			e.clear();
+			e.isBusy=false;
+		}
+	}
+
+	/**
+	 * Takes the next published message. Must be called by one thread at a time.
+	 * @param m - cleared message to fill
+	 * @return false if there is no published message (m is not changed)
+	 */
+	boolean poll(Msg m) {
+		while(true) {
+			long pos=c.head;
+			int off=(int) pos&mask;
+			if((long) STAMP.getAcquire(buf, off)!=pos) return false;
+			int len=buf.getInt(off+8);
+			if(len<0) {
+				clearStamps(off, -len);
+				HEAD.setRelease(c, pos-len); // padding up to the memory end
+				continue;
+			}
+			read(m, off);
+			int claimed=(len+ALIGN-1)&-ALIGN;
+			clearStamps(off, claimed);
+			HEAD.setRelease(c, pos+claimed);
+			return true;
+		}
+	}
+
+	/**
+	 * Sets the stamp slots at the aligned offsets of the space to NO_STAMP (before the space is given to producers)
+	 * @param off
+	 * @param len - multiple of ALIGN
+	 */
+	private void clearStamps(int off, int len) {
+		final ByteBuffer b=buf;
+		for(int i=0;i<len;i+=ALIGN) {
+			b.putLong(off+i, NO_STAMP);
+		}
+	}
+
+	private void read(Msg m, int off) {
+		final ByteBuffer b=buf;
+		int level=b.get(off+12);
+		int flags=b.get(off+13);
+		int argCount=b.getShort(off+14);
+		m.level=(byte) level;
+		m.isFile=(flags&F_FILE)!=0;
+		m.isScreen=(flags&F_SCREEN)!=0;
+		m.isKeepArgs=(flags&F_KEEP_ARGS)!=0;
+		m.time=b.getLong(off+16);
+		m.printAt=b.getLong(off+24);
+		int prefixRef=b.getInt(off+32);
+		int patternRef=b.getInt(off+36);
+		int p=off+HEADER;
+		if(prefixRef==REF_INLINE) {
+			m.prefix=readString(p);
+			p+=stringSize(b.getInt(p));
+		}else if(prefixRef>=0) m.prefix=dictionary[prefixRef];
+		if(patternRef==REF_INLINE) {
+			m.pattern=readString(p);
+			p+=stringSize(b.getInt(p));
+		}else if(patternRef>=0) m.pattern=dictionary[patternRef];
+		if((flags&F_TEXT)!=0) {
+			m.cachedText=readString(p);
+			p+=stringSize(b.getInt(p));
+		}
+		if((flags&F_PRIMITIVE)!=0) {
+			int kinds=0;
+			for(int i=0;i<argCount;i++) {
+				byte tag=b.get(p++);
+				long value=0;
+				int kind;
+				if(tag==A_LONG) {
+					value=b.getLong(p);
+					p+=8;
+					kind=Msg.ARG_LONG;
+				}else if(tag==A_DOUBLE) {
+					value=b.getLong(p);
+					p+=8;
+					kind=Msg.ARG_DOUBLE;
+				}else if(tag==A_NONE) {
+					kind=0;
+				}else {
+					m.argObj=readArg(tag, p);
+					p+=argSize(tag, p);
+					kind=Msg.ARG_OBJECT;
+				}
+				kinds|=kind<<(i*2);
+				if(i==0) m.arg0=value;
+				else if(i==1) m.arg1=value;
+				else m.arg2=value;
+			}
+			m.argKinds=kinds;
+		}else if((flags&F_ARGS)!=0) {
+			Object[] args=new Object[argCount];
+			for(int i=0;i<argCount;i++) {
+				byte tag=b.get(p++);
+				args[i]=readArg(tag, p);
+				p+=argSize(tag, p);
+			}
+			m.args=args;
+		}
+	}
+
+	private Object readArg(byte tag, int p) {
+		switch(tag) {
+			case A_LONG: return buf.getLong(p);
+			case A_DOUBLE: return Double.longBitsToDouble(buf.getLong(p));
+			case A_FLOAT: return buf.getFloat(p);
+			case A_CHAR: return buf.getChar(p);
+			case A_TRUE: return Boolean.TRUE;
+			case A_FALSE: return Boolean.FALSE;
+			case A_DATE: return new Date(buf.getLong(p));
+			case A_STRING: return readString(p);
+			case A_TEXT: return new MsgFormatter.ArgText(readString(p));
+			default: return null;
+		}
+	}
+
+	private int argSize(byte tag, int p) {
+		switch(tag) {
+			case A_LONG:
+			case A_DOUBLE:
+			case A_DATE: return 8;
+			case A_FLOAT: return 4;
+			case A_CHAR: return 2;
+			case A_STRING:
+			case A_TEXT: return stringSize(buf.getInt(p));
+			default: return 0;
+		}
+	}
+
+	private static int stringSize(int header) {
+		int len=header>>>1;
+		return 4+((header&1)!=0?len:len*2);
+	}
+
+	private String readString(int p) {
+		int header=buf.getInt(p);
+		int len=header>>>1;
+		p+=4;
+		if((header&1)!=0) {
+			if(readBytes.length<len) readBytes=new byte[Math.max(len, readBytes.length*2)];
+			readBuf.position(p);
+			readBuf.get(readBytes, 0, len);
+			String s=new String(readBytes, 0, len, StandardCharsets.ISO_8859_1);
+			if(readBytes.length>maxRecord/16) readBytes=new byte[256];
+			return s;
+		}
+		if(readChars.length<len) readChars=new char[Math.max(len, readChars.length*2)];
+		for(int i=0;i<len;i++) {
+			readChars[i]=buf.getChar(p+i*2);
+		}
+		String s=new String(readChars, 0, len);
+		if(readChars.length>maxRecord/16) readChars=new char[256];
+		return s;
+	}
+
+	/**
+	 * @param s
+	 * @param isPattern - the pattern without placeholders is not added to the dictionary
+	 * @return dictionary id or REF_INLINE if the dictionary is full or the string is too long
+	 */
+	private int getId(String s, boolean isPattern) {
+		Integer id=ids.get(s);
+		if(id!=null) return id;
+		if(s.length()>MAX_DICTIONARY_STRING || dictionarySize>=MAX_DICTIONARY_SIZE) return REF_INLINE;
+		if(isPattern && MsgPattern.hasNoRefs(s)) return REF_INLINE;
+		synchronized(ids) {
+			id=ids.get(s);
+			if(id!=null) return id;
+			if(dictionarySize>=MAX_DICTIONARY_SIZE) return REF_INLINE;
+			String[] dict=dictionary;
+			if(dictionarySize==dict.length) {
+				String[] newDict=new String[dict.length*2];
+				System.arraycopy(dict, 0, newDict, 0, dictionarySize);
+				dict=newDict;
+			}
+			dict[dictionarySize]=s;
+			dictionary=dict; // published before the id is visible to other producers
+			id=dictionarySize++;
+			ids.put(s, id);
+			return id;
+		}
+	}
+
+	/**
+	 * Per producer thread encoding state: the record is measured first (arguments converted to text into sb),
+	 * then written to the claimed space
+	 */
+	private final class Encoder {
+		final StringBuilder sb=new StringBuilder(256);
+		boolean isBusy;
+		int prefixRef, patternRef;
+		int flags, argCount;
+		int prefixStart, prefixEnd, patternStart, patternEnd, textStart, textEnd;
+		byte[] tags=new byte[4];
+		long[] values=new long[4]; // primitive values or sb start<<32|end of strings
+		int strings; // bit i - Latin-1 string i
+
+		int prepare(Msg m) {
+			sb.setLength(0);
+			strings=0;
+			flags=(m.isFile?F_FILE:0)|(m.isScreen?F_SCREEN:0)|(m.isKeepArgs?F_KEEP_ARGS:0);
+			argCount=0;
+			prefixRef=m.prefix==null?REF_NONE:getId(m.prefix, false);
+			if(prefixRef==REF_INLINE) {
+				prefixStart=sb.length();
+				sb.append(m.prefix);
+				prefixEnd=sb.length();
+			}
+			String pattern=m.pattern;
+			patternRef=pattern==null?REF_NONE:getId(pattern, true);
+			if(patternRef==REF_INLINE) {
+				patternStart=sb.length();
+				sb.append(pattern);
+				patternEnd=sb.length();
+			}
+			if(m.cachedText!=null) {
+				flags|=F_TEXT;
+				textStart=sb.length();
+				sb.append(m.cachedText);
+				textEnd=sb.length();
+			}else if(m.args!=null) {
+				flags|=F_ARGS;
+				argCount=m.args.length;
+				ensureArgs(argCount);
+				for(int i=0;i<argCount;i++) {
+					prepareArg(i, m.args[i]);
+				}
+			}else if(m.argKinds!=0) {
+				flags|=F_PRIMITIVE;
+				argCount=m.getArgCount();
+				ensureArgs(argCount);
+				for(int i=0;i<argCount;i++) {
+					long value=i==0?m.arg0:i==1?m.arg1:m.arg2;
+					switch((m.argKinds>>>(i*2))&3) {
+						case Msg.ARG_LONG:
+							tags[i]=A_LONG;
+							values[i]=value;
+							break;
+						case Msg.ARG_DOUBLE:
+							tags[i]=A_DOUBLE;
+							values[i]=value;
+							break;
+						case Msg.ARG_OBJECT:
+							prepareArg(i, m.argObj);
+							break;
+						default:
+							tags[i]=A_NONE;
+					}
+				}
+			}
+			int len=measure();
+			if(len>maxRecord) {
+				// too long to queue: the text is made now and cut
+				formatter.makeText(m);
+				String text=m.cachedText;
+				int maxChars=(maxRecord-HEADER-4-(prefixRef==REF_INLINE?stringSize(prefixEnd-prefixStart, false):0))/2-40;
+				sb.setLength(0);
+				if(prefixRef==REF_INLINE) {
+					sb.append(m.prefix);
+					prefixStart=0;
+					prefixEnd=sb.length();
+				}
+				if(prefixRef==REF_INLINE && maxChars<MIN_CAPACITY/16) {
+					prefixRef=REF_NONE;
+					sb.setLength(0);
+					maxChars=(maxRecord-HEADER-4)/2-40;
+				}
+				patternRef=REF_NONE;
+				flags=(flags&(F_FILE|F_SCREEN))|F_TEXT;
+				argCount=0;
+				strings=0;
+				textStart=sb.length();
+				if(text.length()>maxChars) {
+					sb.append(text, 0, maxChars).append("...size:").append(text.length()).append(MsgFormatter.EOL);
+				}else sb.append(text);
+				textEnd=sb.length();
+				len=measure();
+			}
+			return len;
+		}
+
+		private void ensureArgs(int n) {
+			if(tags.length<n) {
+				tags=new byte[n];
+				values=new long[n];
+			}
+		}
+
+		private void prepareArg(int i, Object value) {
+			if(value instanceof LazyArg || value instanceof Supplier) {
+				value=formatter.evalLazyArg(value); // deferrable values are calculated now too
+			}
+			if(value==null) {
+				tags[i]=A_NULL;
+			}else if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+				tags[i]=A_LONG;
+				values[i]=((Number) value).longValue();
+			}else if(value instanceof Double) {
+				tags[i]=A_DOUBLE;
+				values[i]=Double.doubleToRawLongBits((Double) value);
+			}else if(value instanceof Float) {
+				tags[i]=A_FLOAT;
+				values[i]=Float.floatToRawIntBits((Float) value);
+			}else if(value instanceof Character) {
+				tags[i]=A_CHAR;
+				values[i]=(Character) value;
+			}else if(value instanceof Boolean) {
+				tags[i]=(Boolean) value?A_TRUE:A_FALSE;
+			}else if(value.getClass()==Date.class) {
+				tags[i]=A_DATE;
+				values[i]=((Date) value).getTime();
+			}else if(value instanceof String) {
+				tags[i]=A_STRING;
+				int start=sb.length();
+				sb.append((String) value);
+				values[i]=(long) start<<32|sb.length();
+			}else {
+				tags[i]=A_TEXT;
+				int start=sb.length();
+				if(value instanceof MsgFormatter.ArgText) sb.append(((MsgFormatter.ArgText) value).text);
+				else formatter.appendParameter(value, sb);
+				values[i]=(long) start<<32|sb.length();
+			}
+		}
+
+		/**
+		 * @return record length, the Latin-1 strings are marked in the strings bits
+		 */
+		private int measure() {
+			int len=HEADER;
+			int n=0;
+			if(prefixRef==REF_INLINE) len+=measure(prefixStart, prefixEnd, n++);
+			if(patternRef==REF_INLINE) len+=measure(patternStart, patternEnd, n++);
+			if((flags&F_TEXT)!=0) len+=measure(textStart, textEnd, n++);
+			for(int i=0;i<argCount;i++) {
+				len++;
+				switch(tags[i]) {
+					case A_LONG:
+					case A_DOUBLE:
+					case A_DATE: len+=8; break;
+					case A_FLOAT: len+=4; break;
+					case A_CHAR: len+=2; break;
+					case A_STRING:
+					case A_TEXT:
+						len+=measure((int) (values[i]>>>32), (int) values[i], n++);
+						break;
+				}
+			}
+			return len;
+		}
+
+		private int measure(int start, int end, int n) {
+			boolean isLatin1=true;
+			for(int i=start;i<end;i++) {
+				if(sb.charAt(i)>0xff) {
+					isLatin1=false;
+					break;
+				}
+			}
+			if(isLatin1 && n<32) strings|=1<<n;
+			return stringSize(end-start, isLatin1 && n<32);
+		}
+
+		void write(Msg m, int off, int len) {
+			final ByteBuffer b=buf;
+			b.putInt(off+8, len);
+			b.put(off+12, m.level);
+			b.put(off+13, (byte) flags);
+			b.putShort(off+14, (short) argCount);
+			b.putLong(off+16, m.time);
+			b.putLong(off+24, m.printAt);
+			b.putInt(off+32, prefixRef);
+			b.putInt(off+36, patternRef);
+			int p=off+HEADER;
+			int n=0;
+			if(prefixRef==REF_INLINE) p=writeString(p, prefixStart, prefixEnd, n++);
+			if(patternRef==REF_INLINE) p=writeString(p, patternStart, patternEnd, n++);
+			if((flags&F_TEXT)!=0) p=writeString(p, textStart, textEnd, n++);
+			for(int i=0;i<argCount;i++) {
+				byte tag=tags[i];
+				b.put(p++, tag);
+				switch(tag) {
+					case A_LONG:
+					case A_DOUBLE:
+					case A_DATE:
+						b.putLong(p, values[i]);
+						p+=8;
+						break;
+					case A_FLOAT:
+						b.putInt(p, (int) values[i]);
+						p+=4;
+						break;
+					case A_CHAR:
+						b.putChar(p, (char) values[i]);
+						p+=2;
+						break;
+					case A_STRING:
+					case A_TEXT:
+						p=writeString(p, (int) (values[i]>>>32), (int) values[i], n++);
+						break;
+				}
+			}
+		}
+
+		private int writeString(int p, int start, int end, int n) {
+			final ByteBuffer b=buf;
+			int len=end-start;
+			boolean isLatin1=n<32 && (strings&(1<<n))!=0;
+			b.putInt(p, len<<1|(isLatin1?1:0));
+			p+=4;
+			if(isLatin1) {
+				for(int i=start;i<end;i++) {
+					b.put(p++, (byte) sb.charAt(i));
+				}
+			}else {
+				for(int i=start;i<end;i++) {
+					b.putChar(p, sb.charAt(i));
+					p+=2;
+				}
+			}
+			return p;
+		}
+
+		void clear() {
+			if(sb.capacity()>maxRecord/16) {
+				sb.setLength(0);
+				sb.trimToSize();
+			}
+		}
+	}
+
+	private static int stringSize(int len, boolean isLatin1) {
+		return 4+(isLatin1?len:len*2);
+	}
+}
@@ -0,0 +1,212 @@
+package org.mpru.log;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Suppression of the repeated messages. Messages are keyed by level, prefix, pattern and outputs (and the message text
+ * if isByText). The first message of the key is printed and opens the window, the repeats within the window are only
+ * counted. The window is closed by the first message of the key after the window (the message is printed and opens
+ * the next window) or by expire() called by the flusher, and the closed window with repeats is given to the summary
+ * consumer (one "repeated N times" message instead of N messages).
+ * The key table is bounded: open addressing with PROBES slots per key, a slot of the closed window can be taken
+ * by another key. If all the slots are taken by open windows, the message is printed (not deduplicated).
+ * The table slots, the windows and the repeat counters are changed by CAS, no lock is taken.
+ */
+final class MsgDedup {
+
+	private static final int PROBES=8;
+	private static final VarHandle WINDOW;
+	private static final VarHandle COUNT;
+	static {
+		try {
+			WINDOW=MethodHandles.lookup().findVarHandle(Key.class, "window", Window.class);
+			COUNT=MethodHandles.lookup().findVarHandle(Window.class, "count", long.class);
+		}catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final AtomicReferenceArray<Key> table;
+	private final int mask;
+	private final MsgFormatter formatter;
+	private volatile long windowMillis;
+	private volatile boolean isByText;
+	private volatile boolean isUsed;
+
+	/**
+	 * @param maxKeys - table size (rounded up to the power of 2)
+	 * @param formatter - makes the message text for the text keys
+	 */
+	MsgDedup(int maxKeys, MsgFormatter formatter) {
+		int size=Integer.highestOneBit(Math.max(PROBES, maxKeys)-1)<<1;
+		table=new AtomicReferenceArray<>(size);
+		mask=size-1;
+		this.formatter=formatter;
+	}
+
+	/**
+	 * @param windowMillis - 0 to disable (the open windows are closed by the next expire())
+	 */
+	void setWindowMillis(long windowMillis) {
+		this.windowMillis=Math.max(0, windowMillis);
+	}
+
+	long getWindowMillis() {
+		return windowMillis;
+	}
+
+	boolean isEnabled() {
+		return windowMillis>0;
+	}
+
+	/**
+	 * @param isByText - include the message text (with the argument values) into the key
+	 */
+	void setByText(boolean isByText) {
+		this.isByText=isByText;
+	}
+
+	boolean isByText() {
+		return isByText;
+	}
+
+	/**
+	 * Counts the message if it repeats a message printed within the window.
+	 * Makes the message text in isByText mode
+	 * @param m
+	 * @param summaries - gets the window closed by this message
+	 * @return true if the message should not be printed
+	 */
+	boolean isRepeated(Msg m, Consumer<Window> summaries) {
+		long window=windowMillis;
+		if(window<=0) return false;
+		String text=null;
+		if(isByText) {
+			formatter.makeText(m);
+			text=m.cachedText;
+			if(text!=null && text.endsWith(MsgFormatter.EOL)) text=text.substring(0, text.length()-MsgFormatter.EOL.length());
+		}
+		int h=(Objects.hashCode(m.prefix)*31+Objects.hashCode(m.pattern))*31+m.level;
+		if(text!=null) h=h*31+text.hashCode();
+		h^=h>>>16;
+		int victim=-1;
+		Key old=null;
+		for(int i=0;i<PROBES;i++) {
+			int slot=(h+i)&mask;
+			Key k=table.get(slot);
+			if(k==null) {
+				if(table.compareAndSet(slot, null, new Key(m, text, m.time))) {
+					isUsed=true;
+					return false;
+				}
+				k=table.get(slot);
+			}
+			if(k.matches(m, text)) return k.repeat(m.time, window, summaries);
+			if(victim<0 && k.window.count<0) {
+				victim=slot;
+				old=k;
+			}
+		}
+		// the key table is full: take the slot of the closed window or print the message
+		if(victim>=0) table.compareAndSet(victim, old, new Key(m, text, m.time));
+		return false;
+	}
+
+	/**
+	 * Closes the windows which are over
+	 * @param now - Long.MAX_VALUE to close all the windows
+	 * @param summaries - gets the closed windows with repeats
+	 */
+	void expire(long now, Consumer<Window> summaries) {
+		if(!isUsed) return;
+		long window=windowMillis;
+		for(int i=0;i<=mask;i++) {
+			Key k=table.get(i);
+			if(k==null) continue;
+			Window w=k.window;
+			if(w.count>=0 && (window<=0 || now-w.start>=window)) w.close(summaries);
+		}
+	}
+
+	/**
+	 * Deduplication key, the fields of the first message of the key
+	 */
+	static final class Key {
+		final byte level;
+		final boolean isScreen;
+		final boolean isFile;
+		final String prefix;
+		final String pattern;
+		final String text;
+		volatile Window window;
+
+		Key(Msg m, String text, long time) {
+			level=m.level;
+			isScreen=m.isScreen;
+			isFile=m.isFile;
+			prefix=m.prefix;
+			pattern=m.pattern;
+			this.text=text;
+			window=new Window(this, time);
+		}
+
+		boolean matches(Msg m, String text) {
+			return level==m.level && isScreen==m.isScreen && isFile==m.isFile && Objects.equals(pattern, m.pattern) &&
+					Objects.equals(prefix, m.prefix) && Objects.equals(this.text, text);
+		}
+
+		/**
+		 * @return true if counted in the open window, false if the message opened the next one
+		 */
+		boolean repeat(long time, long windowMillis, Consumer<Window> summaries) {
+			while(true) {
+				Window w=window;
+				long n=w.count;
+				if(n>=0 && time-w.start<windowMillis) {
+					if(COUNT.compareAndSet(w, n, n+1)) {
+						if(n==0) w.first=time;
+						w.last=time;
+						return true;
+					}
+					continue;
+				}
+				if(WINDOW.compareAndSet(this, w, new Window(this, time))) {
+					w.close(summaries);
+					return false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Window of a key: the time of the printed message and the repeats counted after it
+	 */
+	static final class Window {
+		final Key key;
+		final long start;
+		volatile long count; // -1 - closed
+		volatile long first;
+		volatile long last;
+		long repeats; // the count when closed
+
+		Window(Key key, long start) {
+			this.key=key;
+			this.start=start;
+		}
+
+		/**
+		 * Closes the window (the repeats are not counted anymore), gives it to the summaries if there are repeats
+		 */
+		void close(Consumer<Window> summaries) {
+			long n=(long) COUNT.getAndSet(this, -1L);
+			if(n>0) {
+				repeats=n;
+				summaries.accept(this);
+			}
+		}
+	}
+}
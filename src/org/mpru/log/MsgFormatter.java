@@ -1,11 +1,12 @@
 package org.mpru.log;
 
 import java.io.PrintStream;
-import java.lang.reflect.Array;
 import java.text.FieldPosition;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.function.Supplier;
 
 public class MsgFormatter {
 
@@ -13,19 +14,54 @@ public class MsgFormatter {
 	protected int MAX_STRING_LENGTH=100000;
 	protected int MAX_PARAMETER_LENGTH=(int) (MAX_STRING_LENGTH*0.8);
 	protected int MAX_PARAMETER_RECURSION_LEVEL=5; // at what level to stop digging and print class name only
+	protected int MAX_CACHED_PATTERN_LENGTH=1000;
+	protected static final int PATTERN_CACHE_SIZE=2048;
 
+	protected final TimeRenderer timeRenderer=new TimeRenderer();
+
+	/**
+	 * @deprecated not used: times and dates are rendered by {@link #timeRenderer}. Kept for the existing subclasses
+	 */
+	@Deprecated
 	protected java.text.SimpleDateFormat f_time = new java.text.SimpleDateFormat("HH:mm:ss");
+	/**
+	 * @deprecated not used, see {@link #f_time}
+	 */
+	@Deprecated
 	protected java.text.SimpleDateFormat f_date = new java.text.SimpleDateFormat("yyyy-MM-dd");
-
-	final static String EOL=System.getProperty("line.separator");
-	protected boolean isLogMillis;
+	/**
+	 * @deprecated not used, see {@link #f_time}
+	 */
+	@Deprecated
 	protected long lastTimeS;
+	/**
+	 * @deprecated not used, see {@link #f_time}
+	 */
+	@Deprecated
 	protected Date cdate=new Date();
+	/**
+	 * @deprecated not used, see {@link #f_time}
+	 */
+	@Deprecated
 	protected FieldPosition fldPos = new FieldPosition(0);
-
+	/**
+	 * @deprecated not used, see {@link #f_time}
+	 */
+	@Deprecated
 	protected final StringBuffer lastTimeBuffer = new StringBuffer(10);
+	/**
+	 * @deprecated not used, see {@link #f_time}
+	 */
+	@Deprecated
 	protected String lastTime;
 
+	final static String EOL=System.getProperty("line.separator");
+	protected boolean isLogMillis;
+	protected volatile boolean isKeepArgs;
+
+	private final MsgPattern.Cache patternCache=new MsgPattern.Cache(
+			Integer.getInteger(Logger.LOGGER_PATTERN_CACHE_SIZE, PATTERN_CACHE_SIZE), MAX_CACHED_PATTERN_LENGTH);
+
 	protected static boolean isNativeAnsiColor;
 	static {
 		String osName=System.getProperty("os.name");
@@ -37,6 +73,17 @@ public class MsgFormatter {
 		}
 	}
 
+	/**
+	 * Registers the formatter of the message arguments of the type and its subclasses
+	 * (used instead of the built-in formatting and toString()).
+	 * The arguments of CharSequence, Number, Character, Date, LazyArg and Supplier types are formatted by MsgFormatter only
+	 * @param type - argument class or interface
+	 * @param formatter - null to remove
+	 */
+	public static <T> void registerFormatter(Class<T> type, ArgFormatter<? super T> formatter) {
+		ArgFormatters.register(type, formatter);
+	}
+
 	public void setLogMillis(boolean isMillis) {
 		isLogMillis=isMillis;
 	}
@@ -45,75 +92,114 @@ public class MsgFormatter {
 		return isLogMillis;
 	}
 
+	/**
+	 * @param isKeep - true: the pattern and the arguments of all the messages are kept when their text is made
+	 * (for the outputs printing them separately, see Logger.setKeepFileArgs to keep them for the file messages only)
+	 */
+	public void setKeepArgs(boolean isKeep) {
+		isKeepArgs=isKeep;
+	}
+
+	public boolean isKeepArgs() {
+		return isKeepArgs;
+	}
+
 	protected void makeText(Msg m) {
 		if(m.cachedText==null) {
 			String txt=m.pattern;
 			if(txt!=null && txt.length()>0) {
-				StringBuilder sb=new StringBuilder(txt.length()+8);
-				sb.setLength(0);
-				if(m.args!=null) {
-					final int argCount=m.args.length;
-					final int txtLength=txt.length();
-					char begChar='{';
-					int startP;
-					char c=0;
-					while(true) {
-						int p=0;
-						int paramStart;
+				if(m.hasArgs()) {
+					final boolean isKeep=isKeepArgs || m.isKeepArgs;
+					if(isKeep) evalLazyArgs(m);
+					// the texts without references are not parsed: they are often built dynamically and would evict the cached patterns
+					MsgPattern p=MsgPattern.hasNoRefs(txt)?null:patternCache.get(txt);
+					if(p==null || p.slots.length==0) {
+						m.cachedText=MsgPattern.toText(txt);
+					}else {
+						final int slotCount=p.slots.length;
+						final int argCount=m.getArgCount();
+						StringBuilder sb=new StringBuilder(p.estimateLength());
 						int paramIdx;
-						startP=0;
-						while(p<txtLength) {
-							p=txt.indexOf(begChar, p);
-							if(p<0) break;
-							paramIdx=-1; // protection from 0 characters in number
-							paramStart=p;
-							while(++p<txtLength) {
-								c=txt.charAt(p);
-								if(c=='}' && begChar=='{') {
-									p++;
-									c=1;
-									break;
-								}
-								c-='0';
-								if(c<0 || c>9) {
-									if(begChar=='$') {
-										c=1;
-										break;
-									}
-									c=0;
-									break;
-								}
-								if(paramIdx==-1) paramIdx=c;
-								else paramIdx=paramIdx*10+c;
-								if(begChar=='$') c=1;
-								else c=0;
-							}
-							if(c==1 && paramIdx>=0) {
-								sb.append(txt, startP, paramStart);
-								startP=p;
-								if(paramIdx<argCount) {
-									appendParameter(m.args[paramIdx], sb);
-								}
+						for(int i=0;i<slotCount;i++) {
+							sb.append(p.literals[i]);
+							paramIdx=p.slots[i];
+							if(paramIdx<argCount) {
+								appendArg(m, paramIdx, sb);
 							}
 						}
-						if(begChar=='$' || startP>0) break;
-						begChar='$';
+						sb.append(p.literals[slotCount]);
+						char end=txt.charAt(txt.length()-1);
+						if(end!=13 && end!=10) {
+							sb.append(EOL);
+						}
+						m.cachedText=sb.toString();
 					}
-					sb.append(txt, startP, txtLength);
-					m.args=null; // free mem
-					m.pattern=null;
-				}else sb.append(txt);
-				char end=txt.charAt(txt.length()-1);
-				if(end!=13 && end!=10) {
-					sb.append(EOL);
-				}
-				m.cachedText=sb.toString();
+					if(!isKeep) {
+						m.args=null; // free mem
+						m.argObj=null;
+						m.argKinds=0;
+						m.pattern=null;
+					}
+				}else m.cachedText=MsgPattern.toText(txt);
 			}else{
 				m.cachedText=EOL;
 			}
 		}
 	}
 
+	/**
+	 * Replaces the lazy arguments of the message keeping its arguments with their values,
+	 * so that the outputs printing the arguments get the values without calculating them again
+	 * @param m
+	 */
+	private void evalLazyArgs(Msg m) {
+		if(m.args==null) {
+			if(m.argObj instanceof LazyArg || m.argObj instanceof Supplier) m.argObj=evalLazyArg(m.argObj);
+			return;
+		}
+		Object[] args=m.args;
+		boolean isCopied=false;
+		for(int i=0;i<args.length;i++) {
+			Object o=args[i];
+			if(o instanceof LazyArg || o instanceof Supplier) {
+				if(!isCopied) {
+					// do not change the array passed by the caller
+					isCopied=true;
+					args=m.args=args.clone();
+				}
+				args[i]=evalLazyArg(o);
+			}
+		}
+	}
+
+	/**
+	 * @param pattern - not empty message pattern
+	 * @return parsed pattern (cached)
+	 */
+	MsgPattern getPattern(String pattern) {
+		return patternCache.get(pattern);
+	}
+
+	public void setPatternCacheSize(int maxSize) {
+		patternCache.setMaxSize(maxSize);
+	}
+
+	public int getPatternCacheSize() {
+		return patternCache.getMaxSize();
+	}
+
+	public long getPatternCacheHits() {
+		return patternCache.hits.sum();
+	}
+
+	public long getPatternCacheMisses() {
+		return patternCache.misses.sum();
+	}
+
+	public long getPatternCacheEvictions() {
+		return patternCache.evictions.sum();
+	}
+
 	/**
 	 * Appends full message, including time, level, prefix, text, parameter values.
 	 * Standard message pattern can contain {N} or $N references to arguments supplied.
@@ -154,6 +240,72 @@ public class MsgFormatter {
 		}
 	}
 
+	/**
+	 * Appends message argument. Primitive arguments (see Msg.argKinds) are appended without boxing
+	 * @param m
+	 * @param idx - argument index
+	 * @param sb
+	 */
+	protected void appendArg(Msg m, int idx, StringBuilder sb) {
+		if(m.args!=null) {
+			appendParameter(m.args[idx], sb);
+			return;
+		}
+		long value=idx==0?m.arg0:idx==1?m.arg1:m.arg2;
+		switch((m.argKinds>>>(idx*2))&3) {
+			case Msg.ARG_LONG:
+				sb.append(value);
+				break;
+			case Msg.ARG_DOUBLE:
+				sb.append(Double.longBitsToDouble(value));
+				break;
+			case Msg.ARG_OBJECT:
+				appendParameter(m.argObj, sb);
+				break;
+		}
+	}
+
+	/**
+	 * Calculates LazyArg or Supplier argument value
+	 * @param value - LazyArg or Supplier
+	 * @return the value or ArgText with the error text if it has thrown an exception
+	 */
+	protected Object evalLazyArg(Object value) {
+		try {
+			if(value instanceof LazyArg) return ((LazyArg) value).get();
+			return ((Supplier<?>) value).get();
+		}catch(Exception e) {
+			return new ArgText("<get() error: "+Log.getExceptionText(e, false)+">");
+		}
+	}
+
+	/**
+	 * Converts the argument to text now (for mutable objects which should be printed as they are at log() call)
+	 * @param value
+	 * @return ArgText
+	 */
+	protected Object renderArg(Object value) {
+		StringBuilder sb=new StringBuilder();
+		appendParameter(value, sb);
+		return new ArgText(sb.toString());
+	}
+
+	/**
+	 * Argument value already converted to text, appended as is
+	 */
+	static final class ArgText {
+		final String text;
+
+		ArgText(String text) {
+			this.text=text;
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+
 	/**
 	 * Appends parameter value (of any class). Should ignore errors and, possibly, limit too long values (like lists, maps and so on)  
 	 * @param value
@@ -177,6 +329,13 @@ public class MsgFormatter {
 	@SuppressWarnings("rawtypes")
 	protected void appendParameter(Object value, StringBuilder sb, final int start, int level) {
 		if(sb.length()-start>MAX_STRING_LENGTH) return;
+		if(value instanceof LazyArg || value instanceof Supplier) {
+			value=evalLazyArg(value);
+		}
+		if(value instanceof ArgText) {
+			sb.append(((ArgText) value).text);
+			return;
+		}
 		if(value instanceof CharSequence) {
 			int sz=((CharSequence) value).length();
 			if(sz>MAX_PARAMETER_LENGTH) {
@@ -191,17 +350,23 @@ public class MsgFormatter {
 		}
 
 		if(value instanceof Date) {
-			synchronized(f_date) {
-				sb.append(f_date.format(value));
-			}
-			String tim=getTimeString(((Date) value).getTime());
-			if(!tim.equals("00:00:00")) {
+			long time=((Date) value).getTime();
+			timeRenderer.appendDate(time, sb, '-');
+			if(!timeRenderer.isMidnight(time)) {
 				sb.append(' ');
-				sb.append(tim);
+				timeRenderer.appendTime(time, sb, false);
 			}
 			return;
 		}
 
+		ArgFormatter<Object> formatter=ArgFormatters.get(value.getClass());
+		if(formatter!=null) {
+			if(formatter instanceof ArgFormatters.ArrayFormatter) {
+				((ArgFormatters.ArrayFormatter) formatter).append(value, sb, MAX_PARAMETER_ELEMENT_COUNT);
+			}else formatter.append(value, sb);
+			return;
+		}
+
 		if(level>MAX_PARAMETER_RECURSION_LEVEL || (sb.length()-start)>MAX_PARAMETER_LENGTH) {
 			sb.append('<').append(value.getClass().getName()).append('>');
 			return;
@@ -232,16 +397,18 @@ public class MsgFormatter {
 			appendParameter(((Map.Entry) value).getValue(), sb, start, level);
 			return;
 		}
-		if(value.getClass().isArray()) {
+		if(value instanceof Object[]) {
+			// primitive arrays are formatted by ArgFormatters
+			Object[] arr=(Object[]) value;
 			sb.append('[');
-			int sz=Array.getLength(value);
+			int sz=arr.length;
 			if(sz>MAX_PARAMETER_ELEMENT_COUNT) {
 				sb.append("SIZE:").append(sz).append(' ');
 				sz=MAX_PARAMETER_ELEMENT_COUNT;
 			}
 			for(int i=0;i<sz;i++) {
 				if(i>0) sb.append(", ");
-				Object val=Array.get(value, i);
+				Object val=arr[i];
 				if(val instanceof Byte) {
 					int vInt=(byte)val&0xff;
 					val=Integer.toString(vInt, 16);
@@ -264,41 +431,32 @@ public class MsgFormatter {
 	 */
 	public void appendTimeString(long time, StringBuilder sb){
 		if(time!=0) {
-			sb.append(getTimeString(time));
-			if(isLogMillis) {
-				sb.append('.');
-				int millis=(int) (time%1000);
-				if(millis<100) {
-					sb.append('0');
-					if(millis<10) sb.append('0');
-				}
-				sb.append(millis);
-			}
+			timeRenderer.appendTime(time, sb, isLogMillis);
 		}
 	}
 
 	/**
-	 * Returns time string (w/o millis). Should cache values to prevent same times reformatting
+	 * Returns time string (w/o millis). Use {@link #appendTimeString(long, StringBuilder)} to append it without string creation
 	 * @param time
 	 * @return time string
 	 */
 	public String getTimeString(long time){
 		if(time!=0) {
-			synchronized(lastTimeBuffer) {
-				long time_s = time / 1000;
-				if(time_s != lastTimeS){
-					lastTimeS = time_s;
-					cdate.setTime(time);
-					f_time.format(cdate, lastTimeBuffer, fldPos);
-					lastTime=lastTimeBuffer.toString();
-					lastTimeBuffer.setLength(0);
-				}
-				return lastTime;
-			}
+			StringBuilder sb=new StringBuilder(8);
+			timeRenderer.appendTime(time, sb, false);
+			return sb.toString();
 		}
 		return "";
 	}
 
+	/**
+	 * Sets the time zone used to print times and dates
+	 * @param timeZone - null to use the default time zone (following its changes)
+	 */
+	public void setTimeZone(TimeZone timeZone) {
+		timeRenderer.setTimeZone(timeZone);
+	}
+
 	public String getLevelNamePadded(byte lev) {
 		//if((lev&ILog.NO_HEADER_CHECK_MASK)!=1 || lev<=ILog.QUIET) return null;
 		if(lev<=ILog.QUIET) return null;
@@ -324,9 +482,10 @@ public class MsgFormatter {
 	}
 
 	public String getDateForDateLogging(long time) {
-		synchronized(f_date) {
-			return "date: "+f_date.format(new Date(time));
-		}
+		StringBuilder sb=new StringBuilder(16);
+		sb.append("date: ");
+		timeRenderer.appendDate(time, sb, '-');
+		return sb.toString();
 	}
 
 	public String ansi(byte level, boolean isBegin) {
@@ -0,0 +1,188 @@
+package org.mpru.log;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parsed message pattern: literal parts and argument references ({N} or $N, see MsgFormatter.appendText)
+ * between them, so the message text is made by merging them with argument values without pattern scanning.
+ */
+final class MsgPattern {
+
+	final String pattern;
+	/**
+	 * literals[i] precedes the reference to argument slots[i], the last literal follows the last reference
+	 */
+	final String[] literals;
+	final int[] slots;
+	/**
+	 * Final text of the message without arguments (or without argument references)
+	 */
+	final String constText;
+	private final int literalsLength;
+	private final long usedArgs; // bit i - argument i is referenced
+
+	private MsgPattern(String pattern, String[] literals, int[] slots) {
+		this.pattern=pattern;
+		this.literals=literals;
+		this.slots=slots;
+		int len=0;
+		for(String s: literals) len+=s.length();
+		literalsLength=len;
+		long used=0;
+		for(int slot: slots) used|=slot<64?1L<<slot:0;
+		usedArgs=used;
+		constText=toText(pattern);
+	}
+
+	/**
+	 * @return true if the pattern cannot contain argument references (is printed as is)
+	 */
+	static boolean hasNoRefs(String pattern) {
+		return pattern.indexOf('{')<0 && pattern.indexOf('$')<0;
+	}
+
+	/**
+	 * @param pattern - not empty message pattern
+	 * @return the pattern ending with EOL
+	 */
+	static String toText(String pattern) {
+		char end=pattern.charAt(pattern.length()-1);
+		return end!=13 && end!=10?pattern+MsgFormatter.EOL:pattern;
+	}
+
+	/**
+	 * @return expected text length (for StringBuilder capacity)
+	 */
+	int estimateLength() {
+		return literalsLength+slots.length*8+2;
+	}
+
+	/**
+	 * @param idx - argument index
+	 * @return true if the argument is referenced by the pattern (always true for index>=64)
+	 */
+	boolean isArgUsed(int idx) {
+		return idx>=64 || (usedArgs>>>idx&1)!=0;
+	}
+
+	static MsgPattern parse(String txt) {
+		final int txtLength=txt.length();
+		String[] literals=new String[4];
+		int[] slots=new int[4];
+		int count;
+		char begChar='{';
+		int startP;
+		char c=0;
+		while(true) {
+			int p=0;
+			int paramStart;
+			int paramIdx;
+			startP=0;
+			count=0;
+			while(p<txtLength) {
+				p=txt.indexOf(begChar, p);
+				if(p<0) break;
+				paramIdx=-1; // protection from 0 characters in number
+				paramStart=p;
+				while(++p<txtLength) {
+					c=txt.charAt(p);
+					if(c=='}' && begChar=='{') {
+						p++;
+						c=1;
+						break;
+					}
+					c-='0';
+					if(c<0 || c>9) {
+						if(begChar=='$') {
+							c=1;
+							break;
+						}
+						c=0;
+						break;
+					}
+					if(paramIdx==-1) paramIdx=c;
+					else paramIdx=paramIdx*10+c;
+					if(begChar=='$') c=1;
+					else c=0;
+				}
+				if(c==1 && paramIdx>=0) {
+					if(count==slots.length) {
+						slots=Arrays.copyOf(slots, count*2);
+						literals=Arrays.copyOf(literals, count*2+1);
+					}
+					literals[count]=txt.substring(startP, paramStart);
+					slots[count++]=paramIdx;
+					startP=p;
+				}
+			}
+			if(begChar=='$' || startP>0) break;
+			begChar='$';
+		}
+		String[] l=new String[count+1];
+		System.arraycopy(literals, 0, l, 0, count);
+		l[count]=txt.substring(startP, txtLength);
+		int[] s=new int[count];
+		System.arraycopy(slots, 0, s, 0, count);
+		return new MsgPattern(txt, l, s);
+	}
+
+	/**
+	 * Bounded concurrent cache of parsed patterns. Only the patterns with argument references are cached.
+	 * When the cache is full, about a quarter of (arbitrary) entries is evicted, so dynamically built patterns
+	 * cannot take more memory than the limit.
+	 */
+	static final class Cache {
+		private final ConcurrentHashMap<String, MsgPattern> map=new ConcurrentHashMap<>();
+		private volatile int maxSize;
+		private final int maxPatternLength;
+		final LongAdder hits=new LongAdder();
+		final LongAdder misses=new LongAdder();
+		final LongAdder evictions=new LongAdder();
+
+		Cache(int maxSize, int maxPatternLength) {
+			this.maxSize=maxSize;
+			this.maxPatternLength=maxPatternLength;
+		}
+
+		void setMaxSize(int maxSize) {
+			this.maxSize=maxSize;
+			if(maxSize<=0) map.clear();
+		}
+
+		int getMaxSize() {
+			return maxSize;
+		}
+
+		int size() {
+			return map.size();
+		}
+
+		MsgPattern get(String pattern) {
+			MsgPattern p=map.get(pattern);
+			if(p!=null) {
+				hits.increment();
+				return p;
+			}
+			misses.increment();
+			p=parse(pattern);
+			final int maxSize=this.maxSize;
+			if(maxSize>0 && p.slots.length>0 && pattern.length()<=maxPatternLength) {
+				if(map.size()>=maxSize) evict(maxSize/4+1);
+				map.put(pattern, p);
+			}
+			return p;
+		}
+
+		private void evict(int count) {
+			Iterator<String> it=map.keySet().iterator();
+			while(count-->0 && it.hasNext()) {
+				it.next();
+				it.remove();
+				evictions.increment();
+			}
+		}
+	}
+}
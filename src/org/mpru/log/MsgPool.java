@@ -0,0 +1,87 @@
+package org.mpru.log;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Bounded lock-free pool of recycled messages (multi-producer/multi-consumer array queue).
+ * Messages are taken by log() callers and returned by the flusher after all ILogOuts have printed them.
+ */
+final class MsgPool {
+
+	private static final VarHandle HEAD;
+	private static final VarHandle TAIL;
+	private static final VarHandle SEQ=MethodHandles.arrayElementVarHandle(long[].class);
+	static {
+		try {
+			HEAD=MethodHandles.lookup().findVarHandle(MsgPool.class, "head", long.class);
+			TAIL=MethodHandles.lookup().findVarHandle(MsgPool.class, "tail", long.class);
+		}catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final Msg[] slots;
+	private final long[] seqs;
+	private final int mask;
+	private volatile long head;
+	private volatile long tail;
+
+	/**
+	 * @param minCapacity - the pool capacity is minCapacity rounded up to the power of 2
+	 */
+	MsgPool(int minCapacity) {
+		int capacity=Integer.highestOneBit(Math.max(2, minCapacity)-1)<<1;
+		slots=new Msg[capacity];
+		seqs=new long[capacity];
+		for(int i=0;i<capacity;i++) {
+			seqs[i]=i;
+		}
+		mask=capacity-1;
+	}
+
+	/**
+	 * @return recycled message or null if the pool is empty
+	 */
+	Msg poll() {
+		long pos=head;
+		while(true) {
+			int idx=(int) pos&mask;
+			long dif=(long) SEQ.getAcquire(seqs, idx)-(pos+1);
+			if(dif==0) {
+				if(HEAD.compareAndSet(this, pos, pos+1)) {
+					Msg m=slots[idx];
+					slots[idx]=null;
+					SEQ.setRelease(seqs, idx, pos+mask+1);
+					return m;
+				}
+			}else if(dif<0) {
+				return null;
+			}
+			pos=head;
+		}
+	}
+
+	/**
+	 * Returns the message to the pool. The message must be already cleared.
+	 * @param m
+	 * @return false if the pool is full (the message is left to GC)
+	 */
+	boolean offer(Msg m) {
+		long pos=tail;
+		while(true) {
+			int idx=(int) pos&mask;
+			long dif=(long) SEQ.getAcquire(seqs, idx)-pos;
+			if(dif==0) {
+				if(TAIL.compareAndSet(this, pos, pos+1)) {
+					slots[idx]=m;
+					SEQ.setRelease(seqs, idx, pos+1);
+					return true;
+				}
+			}else if(dif<0) {
+				return false;
+			}
+			pos=tail;
+		}
+	}
+}
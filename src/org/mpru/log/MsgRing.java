@@ -0,0 +1,96 @@
+package org.mpru.log;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Pre-allocated lock-free multi-producer/single-consumer ring of messages.
+ * Producers claim a sequence by CAS on the tail cursor and publish the slot by storing the sequence
+ * into the slot availability array. The consumer (only one at a time, Logger holds flushLock while draining)
+ * takes published slots in sequence order, so it never waits for producers and producers never wait for it
+ * except when the ring is full.
+ */
+final class MsgRing {
+
+	// cursors are padded to separate cache lines: the tail is hammered by producers, the head - by the consumer
+	static class Pad0 { long p00, p01, p02, p03, p04, p05, p06; }
+	static class Tail extends Pad0 { volatile long tail; }
+	static class Pad1 extends Tail { long p10, p11, p12, p13, p14, p15, p16, p17; }
+	static class Head extends Pad1 { volatile long head; }
+	static class Cursors extends Head { long p20, p21, p22, p23, p24, p25, p26, p27; }
+
+	private static final VarHandle TAIL;
+	private static final VarHandle HEAD;
+	private static final VarHandle AVAILABLE=MethodHandles.arrayElementVarHandle(long[].class);
+	static {
+		try {
+			TAIL=MethodHandles.lookup().findVarHandle(Tail.class, "tail", long.class);
+			HEAD=MethodHandles.lookup().findVarHandle(Head.class, "head", long.class);
+		}catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final Cursors c=new Cursors();
+	private final Msg[] slots;
+	private final long[] available;
+	private final int mask;
+
+	/**
+	 * @param minCapacity - the ring capacity is minCapacity rounded up to the power of 2
+	 */
+	MsgRing(int minCapacity) {
+		int capacity=Integer.highestOneBit(Math.max(2, minCapacity)-1)<<1;
+		slots=new Msg[capacity];
+		available=new long[capacity];
+		for(int i=0;i<capacity;i++) {
+			available[i]=-1;
+		}
+		mask=capacity-1;
+	}
+
+	int capacity() {
+		return slots.length;
+	}
+
+	int size() {
+		long size=c.tail-c.head;
+		return size<0?0:(int) size;
+	}
+
+	boolean isEmpty() {
+		return c.tail==c.head;
+	}
+
+	/**
+	 * Adds the message if there is a free slot. Can be called by any thread.
+	 * @param m
+	 * @return false if the ring is full
+	 */
+	boolean offer(Msg m) {
+		long seq;
+		do {
+			seq=c.tail;
+			if(seq-c.head>=slots.length) return false;
+		}while(!TAIL.compareAndSet(c, seq, seq+1));
+		int idx=(int) seq&mask;
+		slots[idx]=m;
+		AVAILABLE.setRelease(available, idx, seq);
+		return true;
+	}
+
+	/**
+	 * Takes the next published message. Must be called by one thread at a time.
+	 * @return the message or null if there is no published message (the ring is empty or the next producer
+	 * has claimed the slot but not stored the message yet)
+	 */
+	Msg poll() {
+		long seq=c.head;
+		int idx=(int) seq&mask;
+		if((long) AVAILABLE.getAcquire(available, idx)!=seq) return null;
+		Msg m=slots[idx];
+		slots[idx]=null;
+		HEAD.setRelease(c, seq+1);
+		return m;
+	}
+}
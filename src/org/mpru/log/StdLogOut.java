@@ -14,6 +14,18 @@ public class StdLogOut implements ILogOut {
 	private int SILENT_TIME_MILLIS = 60000;
 	private boolean isAllowSkipHeader=true;
 	private boolean isForceTime;
+	private final boolean isPrintOverridden=isPrintOverridden(getClass());
+
+	/**
+	 * @return true if a subclass overrides print()
+	 */
+	private static boolean isPrintOverridden(Class<?> c) {
+		try {
+			return c.getMethod("print", Msg.class).getDeclaringClass()!=StdLogOut.class;
+		}catch(NoSuchMethodException e) {
+			return false;
+		}
+	}
 	
 	protected boolean isCanSkipTime() {
 		if(!isForceTime) {
@@ -27,30 +39,67 @@ public class StdLogOut implements ILogOut {
 	@Override
 	public void print(Msg m) {
 		if(m.isScreen) {
-			
-			final byte level=m.level;
 			StringBuilder sb=new StringBuilder(500);
+			appendScreenText(m, sb);
+			l.stdPrint(sb.toString(), isStdError(m.level));
+		}
+	}
 
-			String ansi=null;
-			if(l.isAnsiColor()) {
-				ansi=l.ansi(level, true);
+	/**
+	 * Prints the following messages of the same stream (stdout or stderr) with one call.
+	 * If a subclass overrides print(), calls it for each message
+	 */
+	@Override
+	public void printBatch(Msg[] msgs, int from, int to) {
+		if(isPrintOverridden) {
+			for(int i=from;i<to;i++) {
+				print(msgs[i]);
 			}
-			byte headerType;
-			if(!isAllowSkipHeader || !m.isSkipHeader()) {
-				headerType=(byte) (isCanSkipTime()?(ILogger.LEVEL|ILogger.PREFIX):(ILogger.LEVEL|ILogger.PREFIX|ILogger.TIME));
-			}else headerType=ILogger.PREFIX;
-			l.appendText(m, sb, headerType);
-			if(sb.length()>0) sb.append(' ');
-			if(ansi!=null) {
-				sb.append(ansi);
+			return;
+		}
+		StringBuilder sb=null;
+		boolean isStdError=false;
+		for(int i=from;i<to;i++) {
+			Msg m=msgs[i];
+			if(!m.isScreen) continue;
+			boolean isError=isStdError(m.level);
+			if(sb==null) sb=new StringBuilder(Math.min(500*(to-i), 64*1024));
+			else if(isError!=isStdError && sb.length()>0) {
+				l.stdPrint(sb.toString(), isStdError);
+				sb.setLength(0);
 			}
-			l.appendText(m, sb, ILogger.TEXT);
+			isStdError=isError;
+			appendScreenText(m, sb);
+		}
+		if(sb!=null && sb.length()>0) l.stdPrint(sb.toString(), isStdError);
+	}
 
-			if(ansi!=null) {
-				ansi=l.ansi(level, false);
-				if(ansi!=null) sb.append(ansi);
-			}
-			l.stdPrint(sb.toString(), level<=ILog.WARN_ERR && level>ILog.QUIET);
+	private static boolean isStdError(byte level) {
+		return level<=ILog.WARN_ERR && level>ILog.QUIET;
+	}
+
+	protected void appendScreenText(Msg m, StringBuilder sb) {
+		final byte level=m.level;
+		final int start=sb.length();
+
+		String ansi=null;
+		if(l.isAnsiColor()) {
+			ansi=l.ansi(level, true);
+		}
+		byte headerType;
+		if(!isAllowSkipHeader || !m.isSkipHeader()) {
+			headerType=(byte) (isCanSkipTime()?(ILogger.LEVEL|ILogger.PREFIX):(ILogger.LEVEL|ILogger.PREFIX|ILogger.TIME));
+		}else headerType=ILogger.PREFIX;
+		l.appendText(m, sb, headerType);
+		if(sb.length()>start) sb.append(' ');
+		if(ansi!=null) {
+			sb.append(ansi);
+		}
+		l.appendText(m, sb, ILogger.TEXT);
+
+		if(ansi!=null) {
+			ansi=l.ansi(level, false);
+			if(ansi!=null) sb.append(ansi);
 		}
 	}
 
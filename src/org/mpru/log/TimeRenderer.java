@@ -0,0 +1,166 @@
+package org.mpru.log;
+
+import java.util.TimeZone;
+
+/**
+ * Appends local time (HH:mm:ss[.SSS]) and date (yyyy-MM-dd) directly to StringBuilder without locks and allocations.
+ * The time zone offset is cached for one minute (immutable object in volatile field), so the default time zone
+ * change and daylight saving time switches are applied within a minute. Can be used by many threads concurrently.
+ */
+public final class TimeRenderer {
+
+	private static final long CACHE_MILLIS=60000;
+	private static final long DAY_MILLIS=24*3600*1000;
+
+	private static final class Offset {
+		final TimeZone tz; // configured time zone (null - default)
+		final long from;
+		final long to;
+		final int offset;
+
+		Offset(TimeZone tz, long from, long to, int offset) {
+			this.tz=tz;
+			this.from=from;
+			this.to=to;
+			this.offset=offset;
+		}
+	}
+
+	private volatile TimeZone timeZone;
+	private volatile Offset cache=new Offset(null, 0, 0, 0);
+
+	/**
+	 * Creates renderer using default time zone (following its changes)
+	 */
+	public TimeRenderer() {
+	}
+
+	/**
+	 * @param timeZone - time zone to use, null - default time zone
+	 */
+	public TimeRenderer(TimeZone timeZone) {
+		this.timeZone=timeZone;
+	}
+
+	/**
+	 * @param timeZone - time zone to use, null - default time zone (following its changes)
+	 */
+	public void setTimeZone(TimeZone timeZone) {
+		this.timeZone=timeZone;
+	}
+
+	public TimeZone getTimeZone() {
+		TimeZone tz=timeZone;
+		return tz==null?TimeZone.getDefault():tz;
+	}
+
+	/**
+	 * @param time
+	 * @return time zone offset (millis) at the time
+	 */
+	public int getOffset(long time) {
+		Offset c=cache;
+		final TimeZone configured=timeZone;
+		if(time>=c.from && time<c.to && c.tz==configured) return c.offset;
+		TimeZone tz=configured==null?TimeZone.getDefault():configured;
+		long from=Math.floorDiv(time, CACHE_MILLIS)*CACHE_MILLIS;
+		int offset=tz.getOffset(time);
+		if(tz.getOffset(from)==offset && tz.getOffset(from+CACHE_MILLIS-1)==offset) {
+			cache=new Offset(configured, from, from+CACHE_MILLIS, offset);
+		}
+		return offset;
+	}
+
+	/**
+	 * @param time
+	 * @return local time of the start of the day containing the time
+	 */
+	public long getDayStart(long time) {
+		return Math.floorDiv(time+getOffset(time), DAY_MILLIS)*DAY_MILLIS-getOffset(time);
+	}
+
+	/**
+	 * @param time
+	 * @return local time of the start of the next day
+	 */
+	public long getNextDayStart(long time) {
+		long nextDay=Math.floorDiv(time+getOffset(time), DAY_MILLIS)*DAY_MILLIS+DAY_MILLIS;
+		// the offset can be changed (daylight saving time) before the next day
+		return nextDay-getOffset(nextDay-getOffset(time));
+	}
+
+	/**
+	 * @param time
+	 * @return true if local time is 00:00:00 (millis ignored)
+	 */
+	public boolean isMidnight(long time) {
+		return Math.floorMod(time+getOffset(time), DAY_MILLIS)<1000;
+	}
+
+	/**
+	 * Appends HH:mm:ss or HH:mm:ss.SSS
+	 * @param time
+	 * @param sb
+	 * @param isMillis
+	 */
+	public void appendTime(long time, StringBuilder sb, boolean isMillis) {
+		int millisOfDay=(int) Math.floorMod(time+getOffset(time), DAY_MILLIS);
+		int secs=millisOfDay/1000;
+		append2(secs/3600, sb);
+		sb.append(':');
+		append2(secs/60%60, sb);
+		sb.append(':');
+		append2(secs%60, sb);
+		if(isMillis) {
+			int millis=millisOfDay%1000;
+			sb.append('.');
+			sb.append((char) ('0'+millis/100));
+			append2(millis%100, sb);
+		}
+	}
+
+	/**
+	 * Appends date as yyyy-MM-dd (with specified separator)
+	 * @param time
+	 * @param sb
+	 * @param separator
+	 */
+	public void appendDate(long time, StringBuilder sb, char separator) {
+		long date=civilFromDays(Math.floorDiv(time+getOffset(time), DAY_MILLIS));
+		long year=date>>9;
+		int month=(int) (date>>5&15);
+		int day=(int) (date&31);
+		if(year>=0 && year<=9999) {
+			append2((int) year/100, sb);
+			append2((int) year%100, sb);
+		}else sb.append(year);
+		sb.append(separator);
+		append2(month, sb);
+		sb.append(separator);
+		append2(day, sb);
+	}
+
+	/**
+	 * Proleptic Gregorian calendar date from epoch day (H.Hinnant's civil_from_days)
+	 * @param epochDay - days since 1970-01-01
+	 * @return year&lt;&lt;9 | month&lt;&lt;5 | day (month 1..12, day 1..31)
+	 */
+	static long civilFromDays(long epochDay) {
+		long z=epochDay+719468;
+		long era=Math.floorDiv(z, 146097);
+		long doe=z-era*146097;
+		long yoe=(doe-doe/1460+doe/36524-doe/146096)/365;
+		long year=yoe+era*400;
+		long doy=doe-(365*yoe+yoe/4-yoe/100);
+		long mp=(5*doy+2)/153;
+		long day=doy-(153*mp+2)/5+1;
+		long month=mp<10?mp+3:mp-9;
+		if(month<=2) year++;
+		return year<<9 | month<<5 | day;
+	}
+
+	private static void append2(int v, StringBuilder sb) {
+		sb.append((char) ('0'+v/10));
+		sb.append((char) ('0'+v%10));
+	}
+}